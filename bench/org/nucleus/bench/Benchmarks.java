@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs all benchmarks of this folder. Each benchmark class runs in its own
+ * JVM (started with the same options as this one), which in turn forks a JVM
+ * for each measurement (see {@link Harness}).
+ */
+public class Benchmarks {
+
+	private static final Class<?>[] BENCHMARKS = { RegistryBenchmark.class,
+			FactoryBenchmark.class, InjectionBenchmark.class };
+
+	/**
+	 * Runs all benchmarks.
+	 */
+	public static void main(String[] args) throws Exception {
+		for (Class<?> benchmark : BENCHMARKS) {
+			List<String> command = new ArrayList<String>();
+			command.add(new File(System.getProperty("java.home"), "bin/java")
+					.getPath());
+			command.addAll(ManagementFactory.getRuntimeMXBean()
+					.getInputArguments());
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(benchmark.getName());
+			for (String arg : args) {
+				command.add(arg);
+			}
+			Process process = new ProcessBuilder(command).inheritIO().start();
+			if (process.waitFor() != 0) {
+				throw new IllegalStateException(benchmark.getSimpleName()
+						+ " failed");
+			}
+		}
+	}
+}
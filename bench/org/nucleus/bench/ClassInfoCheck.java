@@ -0,0 +1,277 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.nucleus.Nucleus;
+import org.nucleus.core.Register;
+import org.nucleus.scan.ClassInfo;
+import org.nucleus.scan.ComponentRoot;
+
+/**
+ * Checks the class file parser ({@link ClassInfo}) against reflection. A class
+ * which is misparsed would silently be skipped by the kernel, therefore this
+ * harness compares the parsed names, super types, access flags and annotations
+ * with the ones reported by the loaded class for:
+ * <ul>
+ * <li>classes wearing annotations with nested, array, enum and class values,
+ * next to constant pool entries for long and double constants (which occupy
+ * two slots),</li>
+ * <li>JDK classes with large constant pools,</li>
+ * <li>all classes of the Nucleus component on the classpath.</li>
+ * </ul>
+ * Additionally it verifies that class files which cannot be parsed are
+ * rejected with an {@link IOException}. The harness exits with status 1 if any
+ * check fails. It is run by <tt>bench/run.sh</tt> before any benchmark, so that
+ * a failing check aborts the run.
+ */
+public class ClassInfoCheck {
+
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface Nested {
+		String value();
+
+		int[] numbers() default {};
+	}
+
+	@Retention(RetentionPolicy.RUNTIME)
+	public @interface Complex {
+		Nested nested();
+
+		Nested[] all();
+
+		Class<?>[] types();
+
+		ElementType kind();
+
+		long big() default Long.MAX_VALUE;
+
+		double ratio() default 0.5;
+
+		char letter() default 'x';
+
+		boolean flag() default true;
+	}
+
+	@Retention(RetentionPolicy.CLASS)
+	public @interface Invisible {
+	}
+
+	public interface Service {
+	}
+
+	@Invisible
+	@Complex(nested = @Nested(value = "a", numbers = { 1, 2, 3 }), all = {
+			@Nested("b"), @Nested(value = "c", numbers = 4) }, types = {
+			String.class, int[].class, void.class }, kind = ElementType.TYPE, big = 1234567890123L, ratio = 2.75)
+	@Register(classes = { Service.class, Runnable.class }, name = "constants", priority = 5)
+	public static class Constants implements Service, Runnable {
+
+		static final long LONG = 1234567890123456789L;
+		static final double DOUBLE = 3.141592653589793;
+		static final float FLOAT = 1.5f;
+		static final int INT = 123456789;
+		static final String STRING = "\u00e4\u0000\uffff";
+
+		long value = LONG;
+		double other = DOUBLE;
+
+		@Override
+		public void run() {
+			value += (long) (other * FLOAT) + INT + STRING.length();
+		}
+	}
+
+	@Deprecated
+	public abstract static class Base<T> extends ArrayList<T> implements
+			Comparable<Base<T>> {
+		private static final long serialVersionUID = 1L;
+
+		static final double HALF = 0.5d;
+		static final long MILLIS = 86400000000L;
+	}
+
+	private static int checks;
+	private static List<String> failures = new ArrayList<String>();
+
+	/**
+	 * Runs all checks.
+	 */
+	public static void main(String[] args) throws Exception {
+		for (Class<?> type : new Class<?>[] { Constants.class, Base.class,
+				Complex.class, Nested.class, Service.class, Invisible.class,
+				ClassInfoCheck.class }) {
+			check(type);
+		}
+		for (Class<?> type : new Class<?>[] { String.class, Math.class,
+				Long.class, Double.class, TimeUnit.class, Collections.class }) {
+			check(type);
+		}
+		int parsed = checkComponent();
+		checkRejected("empty", new byte[0]);
+		checkRejected("wrong magic", new byte[] { 1, 2, 3, 4, 0, 0, 0, 52 });
+		byte[] valid = readClassFile(Constants.class);
+		checkRejected("truncated", Arrays.copyOf(valid, valid.length / 2));
+		byte[] invalidTag = valid.clone();
+		// The tag of the first constant pool entry follows magic, versions
+		// and the size of the pool
+		invalidTag[10] = 99;
+		checkRejected("invalid constant pool tag", invalidTag);
+
+		System.out.println(checks + " checks, " + parsed
+				+ " classes of the Nucleus component, " + failures.size()
+				+ " failures");
+		for (String failure : failures) {
+			System.out.println("FAILED: " + failure);
+		}
+		if (!failures.isEmpty()) {
+			System.exit(1);
+		}
+	}
+
+	private static byte[] readClassFile(Class<?> type) throws IOException {
+		String name = type.getName();
+		InputStream in = type.getResourceAsStream(name.substring(name
+				.lastIndexOf('.') + 1) + ".class");
+		if (in == null) {
+			throw new IOException("Cannot find the class file of " + name);
+		}
+		try {
+			return readAll(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read = in.read(buffer);
+		while (read >= 0) {
+			out.write(buffer, 0, read);
+			read = in.read(buffer);
+		}
+		return out.toByteArray();
+	}
+
+	private static void check(Class<?> type) throws IOException {
+		check(type, ClassInfo.read(readClassFile(type)));
+	}
+
+	/*
+	 * Compares the parsed info with the loaded class.
+	 */
+	private static void check(Class<?> type, ClassInfo info) {
+		String name = type.getName();
+		expect(name, "name", name, info.getName());
+		// Reflection omits the super class of interfaces, the class file names
+		// Object
+		String superName = type.isInterface() ? Object.class.getName()
+				: type.getSuperclass() == null ? null : type.getSuperclass()
+						.getName();
+		expect(name, "super class", superName, info.getSuperName());
+		List<String> interfaces = new ArrayList<String>();
+		for (Class<?> iface : type.getInterfaces()) {
+			interfaces.add(iface.getName());
+		}
+		expect(name, "interfaces", interfaces, Arrays.asList(info
+				.getInterfaces()));
+		List<String> annotations = new ArrayList<String>();
+		for (Annotation annotation : type.getDeclaredAnnotations()) {
+			annotations.add(annotation.annotationType().getName());
+		}
+		List<String> parsed = new ArrayList<String>(Arrays.asList(info
+				.getAnnotations()));
+		Collections.sort(annotations);
+		Collections.sort(parsed);
+		expect(name, "annotations", annotations, parsed);
+		expect(name, "interface", type.isInterface(), info.isInterface());
+		expect(name, "abstract", Modifier.isAbstract(type.getModifiers()),
+				info.isAbstract());
+	}
+
+	private static void expect(String type, String what, Object expected,
+			Object actual) {
+		checks++;
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			failures.add(type + ": " + what + " expected " + expected
+					+ " but was " + actual);
+		}
+	}
+
+	/*
+	 * Parses every class of the component which contains Nucleus and compares
+	 * it with the class loaded (but not initialized) by its name.
+	 */
+	private static int checkComponent() throws Exception {
+		URL url = Nucleus.class.getResource("/component.properties");
+		ComponentRoot root = ComponentRoot.open(url);
+		int count = 0;
+		try {
+			for (String path : root.list(true)) {
+				InputStream in = root.openStream(path);
+				ClassInfo info;
+				try {
+					info = ClassInfo.read(in);
+				} catch (IOException e) {
+					failures.add(path + ": " + e);
+					continue;
+				} finally {
+					in.close();
+				}
+				check(Class.forName(info.getName(), false,
+						ClassInfoCheck.class.getClassLoader()), info);
+				count++;
+			}
+		} finally {
+			root.close();
+		}
+		return count;
+	}
+
+	private static void checkRejected(String name, byte[] bytes) {
+		checks++;
+		try {
+			ClassInfo info = ClassInfo.read(bytes);
+			failures.add(name + ": parsed as " + info);
+		} catch (IOException e) {
+			// Expected
+		} catch (RuntimeException e) {
+			failures.add(name + ": failed with " + e
+					+ " instead of an IOException");
+		}
+	}
+}
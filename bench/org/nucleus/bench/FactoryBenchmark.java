@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.bench;
+
+import org.nucleus.Nucleus;
+import org.nucleus.bench.Harness.Operation;
+import org.nucleus.core.Factory;
+import org.nucleus.core.Inject;
+
+/**
+ * Measures {@link Factory#inject(Object)} and {@link Factory#create(Class)}
+ * for classes with a varying number of fields and depth of their hierarchy.
+ * <p>
+ * If the benchmarks are compiled with the
+ * {@link org.nucleus.core.InjectorProcessor}, classes with accessible fields
+ * use generated injectors, while the variants with private fields always use
+ * reflection.
+ */
+public class FactoryBenchmark {
+
+	/**
+	 * The type of all injected fields.
+	 */
+	public interface Service {
+	}
+
+	/**
+	 * No injected fields.
+	 */
+	public static class Empty {
+	}
+
+	/**
+	 * Five injected fields.
+	 */
+	public static class Five {
+		@Inject
+		Service f0;
+		@Inject
+		Service f1;
+		@Inject
+		Service f2;
+		@Inject
+		Service f3;
+		@Inject
+		Service f4;
+	}
+
+	/**
+	 * Five injected private fields, which are always injected reflectively.
+	 */
+	public static class PrivateFive {
+		@Inject
+		private Service f0;
+		@Inject
+		private Service f1;
+		@Inject
+		private Service f2;
+		@Inject
+		private Service f3;
+		@Inject
+		private Service f4;
+
+		@Override
+		public String toString() {
+			return f0 + " " + f1 + " " + f2 + " " + f3 + " " + f4;
+		}
+	}
+
+	/**
+	 * Five injected fields, declared across a hierarchy of three classes.
+	 */
+	public static class Level1 {
+		@Inject
+		Service a;
+		@Inject
+		Service b;
+	}
+
+	/**
+	 * Second level of the hierarchy.
+	 */
+	public static class Level2 extends Level1 {
+		@Inject
+		Service c;
+		@Inject
+		Service d;
+	}
+
+	/**
+	 * Third level of the hierarchy.
+	 */
+	public static class Level3 extends Level2 {
+		@Inject
+		Service e;
+	}
+
+	/**
+	 * Runs all benchmarks.
+	 */
+	public static void main(String[] args) throws Exception {
+		Nucleus.register(Service.class, new Service() {
+		});
+		Harness.start(FactoryBenchmark.class, "Factory");
+		final Factory factory = new Factory();
+		for (final Class<?> type : new Class<?>[] { Empty.class, Five.class,
+				PrivateFive.class, Level3.class }) {
+			final Object target = type.getDeclaredConstructor().newInstance();
+			Harness.measure("inject " + type.getSimpleName(), new Operation() {
+				@Override
+				public Object run() {
+					return Factory.inject(target);
+				}
+			});
+			Harness.measure("create " + type.getSimpleName(), new Operation() {
+				@Override
+				public Object run() {
+					return factory.create(type);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * A minimal benchmark harness: each operation is warmed up and then measured
+ * in several rounds of a fixed duration. The average and the best round are
+ * reported in nanoseconds per operation, along with the bytes allocated per
+ * operation (if supported by the JVM).
+ * <p>
+ * Operations can be run by several threads concurrently, in which case the
+ * times are reported per operation of a single thread.
+ * <p>
+ * Each measurement runs in a JVM of its own: the benchmark class given to
+ * {@link #start(Class, String)} is started again for each call of
+ * <tt>measure</tt>, with the system property <tt>bench.measurement</tt>
+ * selecting the one to perform. Otherwise all operations would share the call
+ * site in the measuring loop, which would become megamorphic and keep the JIT
+ * from inlining them. As the benchmark is run by each forked JVM, anything
+ * besides its operations which keeps the CPU busy (like background threads)
+ * has to be started by the measured operation itself.
+ * <p>
+ * The durations can be changed using the system properties
+ * <tt>bench.warmup</tt> and <tt>bench.time</tt> (milliseconds per round) as
+ * well as <tt>bench.rounds</tt>. The number of threads used for contended
+ * benchmarks is given by <tt>bench.threads</tt>.
+ */
+public class Harness {
+
+	/**
+	 * A measured operation. Its result is consumed by the harness, so that
+	 * the JIT cannot eliminate the operation.
+	 */
+	public interface Operation {
+
+		/**
+		 * Performs the operation once.
+		 */
+		Object run() throws Exception;
+
+	}
+
+	/**
+	 * The number of threads used for contended benchmarks.
+	 */
+	public static final int THREADS = Integer.getInteger("bench.threads",
+			Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+	private static final long WARMUP = Long.getLong("bench.warmup", 2000);
+	private static final long TIME = Long.getLong("bench.time", 1000);
+	private static final int ROUNDS = Integer.getInteger("bench.rounds", 5);
+
+	private static final ThreadMXBean THREAD_BEAN = getThreadBean();
+
+	/*
+	 * The measurement performed by this JVM, or -1 if this JVM forks one for
+	 * each measurement.
+	 */
+	private static final int MEASUREMENT = Integer.getInteger(
+			"bench.measurement", -1);
+
+	/*
+	 * Kept, so that the level set for forked JVMs isn't lost.
+	 */
+	private static final Logger NUCLEUS_LOG = Logger.getLogger("org.nucleus");
+
+	private static Class<?> benchmark;
+	private static int measurements;
+
+	/*
+	 * Written by each round, so that results are not optimized away.
+	 */
+	static volatile int sink;
+
+	/*
+	 * The results of a round: operations, elapsed time and allocated bytes of
+	 * all threads.
+	 */
+	private static class Round {
+		long count;
+		long nanos;
+		long bytes;
+	}
+
+	private static ThreadMXBean getThreadBean() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory
+				.getThreadMXBean();
+		if (bean instanceof ThreadMXBean
+				&& ((ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			((ThreadMXBean) bean).setThreadAllocatedMemoryEnabled(true);
+			return (ThreadMXBean) bean;
+		}
+		return null;
+	}
+
+	/**
+	 * Prints the header of the result table. The given class is started in a
+	 * forked JVM for each measurement.
+	 */
+	public static void start(Class<?> benchmark, String title) {
+		Harness.benchmark = benchmark;
+		if (MEASUREMENT >= 0) {
+			NUCLEUS_LOG.setLevel(Level.WARNING);
+			return;
+		}
+		System.out.println();
+		System.out.println(title);
+		System.out.println(String.format(Locale.ENGLISH,
+				"%-50s %7s %12s %12s %12s", "Benchmark", "Threads", "ns/op",
+				"best ns/op", "B/op"));
+	}
+
+	/**
+	 * Measures the given operation, run by a single thread, and prints the
+	 * results.
+	 */
+	public static void measure(String name, Operation operation)
+			throws Exception {
+		measure(name, operation, 1);
+	}
+
+	/**
+	 * Measures the given operation, run by the given number of threads
+	 * concurrently, and prints the results.
+	 */
+	public static void measure(String name, Operation operation, int threads)
+			throws Exception {
+		int measurement = measurements++;
+		if (MEASUREMENT < 0) {
+			fork(name, measurement);
+			return;
+		}
+		if (measurement != MEASUREMENT) {
+			return;
+		}
+		round(operation, WARMUP, threads);
+		double best = Double.MAX_VALUE;
+		double sum = 0;
+		long count = 0;
+		long bytes = 0;
+		for (int i = 0; i < ROUNDS; i++) {
+			Round round = round(operation, TIME, threads);
+			double time = (double) round.nanos * threads / round.count;
+			best = Math.min(best, time);
+			sum += time;
+			count += round.count;
+			bytes += round.bytes;
+		}
+		System.out.println(String.format(Locale.ENGLISH,
+				"%-50s %7d %12.1f %12.1f %12s", name, threads, sum / ROUNDS,
+				best, THREAD_BEAN == null ? "n/a" : String.format(
+						Locale.ENGLISH, "%.1f", (double) bytes / count)));
+	}
+
+	/*
+	 * Runs the benchmark in a new JVM (started with the same options as this
+	 * one), which only performs the given measurement.
+	 */
+	private static void fork(String name, int measurement) throws Exception {
+		if (benchmark == null) {
+			throw new IllegalStateException("start() must be called first");
+		}
+		List<String> command = new ArrayList<String>();
+		command.add(new File(System.getProperty("java.home"), "bin/java")
+				.getPath());
+		command.addAll(ManagementFactory.getRuntimeMXBean()
+				.getInputArguments());
+		command.add("-Dbench.measurement=" + measurement);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(benchmark.getName());
+		Process process = new ProcessBuilder(command).inheritIO().start();
+		if (process.waitFor() != 0) {
+			throw new IllegalStateException(name + " failed");
+		}
+	}
+
+	/*
+	 * Runs the operation on the given number of threads for the given
+	 * duration.
+	 */
+	private static Round round(final Operation operation, long millis,
+			int threads) throws Exception {
+		final long end = System.nanoTime() + millis * 1000000L;
+		final Round result = new Round();
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread("bench-" + t) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						long bytes = getAllocatedBytes();
+						long count = 0;
+						int hash = 0;
+						do {
+							for (int i = 0; i < 1000; i++) {
+								hash += System.identityHashCode(operation
+										.run());
+							}
+							count += 1000;
+						} while (System.nanoTime() < end);
+						bytes = getAllocatedBytes() - bytes;
+						sink = hash;
+						synchronized (result) {
+							result.count += count;
+							result.bytes += bytes;
+						}
+					} catch (Exception e) {
+						failure.set(e);
+					}
+				}
+			};
+			workers[t].start();
+		}
+		long started = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		result.nanos = System.nanoTime() - started;
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		return result;
+	}
+
+	private static long getAllocatedBytes() {
+		return THREAD_BEAN == null ? 0 : THREAD_BEAN
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,501 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.bench;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nucleus.Nucleus;
+import org.nucleus.bench.Harness.Operation;
+import org.nucleus.core.Factory;
+import org.nucleus.core.Inject;
+
+/**
+ * Compares {@link Factory#inject(Object)} with reflective injection using
+ * {@link Field#set(Object, Object)}, for classes with 1, 10 and 50 injected
+ * fields.
+ * <p>
+ * Two reflective variants are measured: one which walks the class like the
+ * original implementation did for each object, and one which only keeps the
+ * fields in a cache. The injected fields of these classes are private, so that
+ * the {@link Factory} uses reflection as well. Finally, the {@link Factory} is
+ * measured for classes with package private fields, which are filled by the
+ * injectors generated at compile time.
+ */
+public class InjectionBenchmark {
+
+	/**
+	 * The type of all injected fields.
+	 */
+	public interface Service {
+	}
+
+	public static class One {
+		@Inject
+		private Service f0;
+	}
+
+	public static class Ten {
+		@Inject
+		private Service f0;
+
+		@Inject
+		private Service f1;
+
+		@Inject
+		private Service f2;
+
+		@Inject
+		private Service f3;
+
+		@Inject
+		private Service f4;
+
+		@Inject
+		private Service f5;
+
+		@Inject
+		private Service f6;
+
+		@Inject
+		private Service f7;
+
+		@Inject
+		private Service f8;
+
+		@Inject
+		private Service f9;
+	}
+
+	public static class Fifty {
+		@Inject
+		private Service f0;
+
+		@Inject
+		private Service f1;
+
+		@Inject
+		private Service f2;
+
+		@Inject
+		private Service f3;
+
+		@Inject
+		private Service f4;
+
+		@Inject
+		private Service f5;
+
+		@Inject
+		private Service f6;
+
+		@Inject
+		private Service f7;
+
+		@Inject
+		private Service f8;
+
+		@Inject
+		private Service f9;
+
+		@Inject
+		private Service f10;
+
+		@Inject
+		private Service f11;
+
+		@Inject
+		private Service f12;
+
+		@Inject
+		private Service f13;
+
+		@Inject
+		private Service f14;
+
+		@Inject
+		private Service f15;
+
+		@Inject
+		private Service f16;
+
+		@Inject
+		private Service f17;
+
+		@Inject
+		private Service f18;
+
+		@Inject
+		private Service f19;
+
+		@Inject
+		private Service f20;
+
+		@Inject
+		private Service f21;
+
+		@Inject
+		private Service f22;
+
+		@Inject
+		private Service f23;
+
+		@Inject
+		private Service f24;
+
+		@Inject
+		private Service f25;
+
+		@Inject
+		private Service f26;
+
+		@Inject
+		private Service f27;
+
+		@Inject
+		private Service f28;
+
+		@Inject
+		private Service f29;
+
+		@Inject
+		private Service f30;
+
+		@Inject
+		private Service f31;
+
+		@Inject
+		private Service f32;
+
+		@Inject
+		private Service f33;
+
+		@Inject
+		private Service f34;
+
+		@Inject
+		private Service f35;
+
+		@Inject
+		private Service f36;
+
+		@Inject
+		private Service f37;
+
+		@Inject
+		private Service f38;
+
+		@Inject
+		private Service f39;
+
+		@Inject
+		private Service f40;
+
+		@Inject
+		private Service f41;
+
+		@Inject
+		private Service f42;
+
+		@Inject
+		private Service f43;
+
+		@Inject
+		private Service f44;
+
+		@Inject
+		private Service f45;
+
+		@Inject
+		private Service f46;
+
+		@Inject
+		private Service f47;
+
+		@Inject
+		private Service f48;
+
+		@Inject
+		private Service f49;
+	}
+
+	/*
+	 * The same classes with package private fields, for which the
+	 * InjectorProcessor generates injectors writing the fields directly.
+	 */
+	public static class GeneratedOne {
+		@Inject
+		Service f0;
+	}
+
+	public static class GeneratedTen {
+		@Inject
+		Service f0;
+
+		@Inject
+		Service f1;
+
+		@Inject
+		Service f2;
+
+		@Inject
+		Service f3;
+
+		@Inject
+		Service f4;
+
+		@Inject
+		Service f5;
+
+		@Inject
+		Service f6;
+
+		@Inject
+		Service f7;
+
+		@Inject
+		Service f8;
+
+		@Inject
+		Service f9;
+	}
+
+	public static class GeneratedFifty {
+		@Inject
+		Service f0;
+
+		@Inject
+		Service f1;
+
+		@Inject
+		Service f2;
+
+		@Inject
+		Service f3;
+
+		@Inject
+		Service f4;
+
+		@Inject
+		Service f5;
+
+		@Inject
+		Service f6;
+
+		@Inject
+		Service f7;
+
+		@Inject
+		Service f8;
+
+		@Inject
+		Service f9;
+
+		@Inject
+		Service f10;
+
+		@Inject
+		Service f11;
+
+		@Inject
+		Service f12;
+
+		@Inject
+		Service f13;
+
+		@Inject
+		Service f14;
+
+		@Inject
+		Service f15;
+
+		@Inject
+		Service f16;
+
+		@Inject
+		Service f17;
+
+		@Inject
+		Service f18;
+
+		@Inject
+		Service f19;
+
+		@Inject
+		Service f20;
+
+		@Inject
+		Service f21;
+
+		@Inject
+		Service f22;
+
+		@Inject
+		Service f23;
+
+		@Inject
+		Service f24;
+
+		@Inject
+		Service f25;
+
+		@Inject
+		Service f26;
+
+		@Inject
+		Service f27;
+
+		@Inject
+		Service f28;
+
+		@Inject
+		Service f29;
+
+		@Inject
+		Service f30;
+
+		@Inject
+		Service f31;
+
+		@Inject
+		Service f32;
+
+		@Inject
+		Service f33;
+
+		@Inject
+		Service f34;
+
+		@Inject
+		Service f35;
+
+		@Inject
+		Service f36;
+
+		@Inject
+		Service f37;
+
+		@Inject
+		Service f38;
+
+		@Inject
+		Service f39;
+
+		@Inject
+		Service f40;
+
+		@Inject
+		Service f41;
+
+		@Inject
+		Service f42;
+
+		@Inject
+		Service f43;
+
+		@Inject
+		Service f44;
+
+		@Inject
+		Service f45;
+
+		@Inject
+		Service f46;
+
+		@Inject
+		Service f47;
+
+		@Inject
+		Service f48;
+
+		@Inject
+		Service f49;
+	}
+
+	/**
+	 * Runs all benchmarks.
+	 */
+	public static void main(String[] args) throws Exception {
+		Nucleus.register(Service.class, new Service() {
+		});
+		Harness.start(InjectionBenchmark.class, "Injection");
+		for (Class<?> type : new Class<?>[] { One.class, Ten.class,
+				Fifty.class }) {
+			run(type);
+		}
+		for (Class<?> type : new Class<?>[] { GeneratedOne.class,
+				GeneratedTen.class, GeneratedFifty.class }) {
+			measureFactory(type);
+		}
+	}
+
+	private static void run(final Class<?> type) throws Exception {
+		final Object target = type.getDeclaredConstructor().newInstance();
+		final List<Field> fields = new ArrayList<Field>();
+		for (Field field : type.getDeclaredFields()) {
+			if (field.isAnnotationPresent(Inject.class)) {
+				field.setAccessible(true);
+				fields.add(field);
+			}
+		}
+		String name = fields.size() + " fields:";
+		Harness.measure(name + " reflection, uncached", new Operation() {
+			@Override
+			public Object run() throws Exception {
+				for (Field field : type.getDeclaredFields()) {
+					field.setAccessible(true);
+					if (field.isAnnotationPresent(Inject.class)) {
+						field.set(target, Nucleus.findPart(field.getType()));
+					}
+				}
+				return target;
+			}
+		});
+		Harness.measure(name + " reflection, cached fields", new Operation() {
+			@Override
+			public Object run() throws Exception {
+				for (Field field : fields) {
+					field.set(target, Nucleus.findPart(field.getType()));
+				}
+				return target;
+			}
+		});
+		Harness.measure(name + " Factory.inject", new Operation() {
+			@Override
+			public Object run() throws Exception {
+				return Factory.inject(target);
+			}
+		});
+	}
+
+	private static void measureFactory(Class<?> type) throws Exception {
+		final Object target = type.getDeclaredConstructor().newInstance();
+		Harness.measure(type.getDeclaredFields().length
+				+ " fields: Factory.inject, generated injector", new Operation() {
+			@Override
+			public Object run() throws Exception {
+				return Factory.inject(target);
+			}
+		});
+	}
+}
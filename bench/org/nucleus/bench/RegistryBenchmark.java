@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.bench;
+
+import java.util.List;
+
+import org.nucleus.Nucleus;
+import org.nucleus.Registry;
+import org.nucleus.bench.Harness.Operation;
+import org.nucleus.core.Part;
+import org.nucleus.core.Parts;
+
+/**
+ * Measures lookups in a {@link Registry} with 1, 10 and 1000 parts registered
+ * for the looked up class (single threaded and contended), lookups using
+ * {@link Part} and {@link Parts}, and registrations while other threads keep
+ * looking up parts.
+ */
+public class RegistryBenchmark {
+
+	/**
+	 * The class for which parts are registered.
+	 */
+	public interface Service {
+	}
+
+	/**
+	 * A registered part.
+	 */
+	public static class ServiceImpl implements Service {
+	}
+
+	/**
+	 * Runs all benchmarks.
+	 */
+	public static void main(String[] args) throws Exception {
+		Harness.start(RegistryBenchmark.class, "Registry lookups");
+		for (int size : new int[] { 1, 10, 1000 }) {
+			final Registry registry = new Registry();
+			for (int i = 0; i < size; i++) {
+				registry.register(Service.class, new ServiceImpl());
+			}
+			for (int threads : new int[] { 1, Harness.THREADS }) {
+				Harness.measure("findPart, " + size + " parts", new Operation() {
+					@Override
+					public Object run() {
+						return registry.findPart(Service.class);
+					}
+				}, threads);
+				Harness.measure("findParts, " + size + " parts",
+						new Operation() {
+							@Override
+							public Object run() {
+								return registry.findParts(Service.class);
+							}
+						}, threads);
+				Harness.measure("findAll, " + size + " parts", new Operation() {
+					@Override
+					public Object run() {
+						return registry.findAll(Service.class);
+					}
+				}, threads);
+			}
+		}
+		Nucleus.register(Service.class, new ServiceImpl());
+		final Part<Service> part = Part.of(Service.class);
+		final Parts<Service> parts = Parts.of(Service.class);
+		Harness.measure("Nucleus.findPart", new Operation() {
+			@Override
+			public Object run() {
+				return Nucleus.findPart(Service.class);
+			}
+		});
+		Harness.measure("Part.get", new Operation() {
+			@Override
+			public Object run() {
+				return part.get();
+			}
+		});
+		Harness.measure("Parts.get", new Operation() {
+			@Override
+			public Object run() {
+				return parts.get();
+			}
+		});
+		measureRegister();
+	}
+
+	/*
+	 * Used by measureRegister to share the registry with the readers.
+	 */
+	private static volatile Registry current;
+	private static volatile boolean running;
+
+	/*
+	 * Registers parts while reader threads look up the same class. As each
+	 * registration copies the snapshot, a new registry is used after every
+	 * 100 registrations to keep the cost stable. The readers are started by
+	 * the first registration, so that they only run in the JVM performing
+	 * the measurement.
+	 */
+	private static void measureRegister() throws Exception {
+		current = new Registry();
+		running = true;
+		final Thread[] readers = new Thread[Math.max(1, Harness.THREADS - 1)];
+		try {
+			Harness.measure("register, " + readers.length + " readers",
+					new Operation() {
+						private int count;
+
+						@Override
+						public Object run() {
+							if (count == 0) {
+								startReaders(readers);
+							}
+							Registry registry = current;
+							if (++count % 100 == 0) {
+								registry = new Registry();
+								current = registry;
+							}
+							registry.register(Service.class, new ServiceImpl());
+							return registry;
+						}
+					});
+		} finally {
+			running = false;
+			for (Thread reader : readers) {
+				if (reader != null) {
+					reader.join();
+				}
+			}
+		}
+	}
+
+	private static void startReaders(Thread[] readers) {
+		if (readers[0] != null) {
+			return;
+		}
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread("reader-" + i) {
+				@Override
+				public void run() {
+					int hash = 0;
+					while (running) {
+						List<Service> result = current
+								.findParts(Service.class);
+						hash += result.size();
+					}
+					Harness.sink = hash;
+				}
+			};
+			readers[i].start();
+		}
+	}
+}
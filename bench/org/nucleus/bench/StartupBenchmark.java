@@ -0,0 +1,299 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.nucleus.Nucleus;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Measures how {@link Nucleus#init()} scales with the number of components
+ * and classes.
+ * <p>
+ * For each size, synthetic components are generated: each consists of a
+ * <tt>component.properties</tt> and the given number of classes, of which a
+ * share are parts (wearing <tt>@Register</tt> and an <tt>@Inject</tt> field).
+ * Each component is provided as exploded directory and as jar. For each size
+ * and layout, several JVMs are forked, which only perform the initialization
+ * and report the time of <tt>init()</tt>, the bytes allocated by it and the
+ * peak heap usage. The wall time of the whole JVM is measured as cold start.
+ * <p>
+ * Settings (system properties): <tt>bench.components</tt> (number of
+ * components, default 2), <tt>bench.classes</tt> (comma separated classes per
+ * component, default 10,100,1000,10000), <tt>bench.parts</tt> (share of parts,
+ * default 0.1), <tt>bench.forks</tt> (JVMs per measurement, default 3),
+ * <tt>bench.index</tt> (compile with the annotation processors, default
+ * false) and <tt>bench.dir</tt> (work directory). Additional options for the
+ * forked JVMs can be given by <tt>bench.jvmArgs</tt>.
+ */
+public class StartupBenchmark {
+
+	private static final String RESULT = "RESULT ";
+
+	/**
+	 * Runs all measurements.
+	 */
+	public static void main(String[] args) throws Exception {
+		int components = Integer.getInteger("bench.components", 2);
+		double share = Double.parseDouble(System.getProperty("bench.parts",
+				"0.1"));
+		int forks = Integer.getInteger("bench.forks", 3);
+		File dir = new File(System.getProperty("bench.dir", new File(
+				System.getProperty("java.io.tmpdir"), "nucleus-startup")
+				.getPath()));
+		System.out.println();
+		System.out.println("Startup (" + components + " components, "
+				+ (int) (share * 100) + "% parts, " + forks + " forks)");
+		System.out.println(String.format(Locale.ENGLISH,
+				"%8s %-6s %12s %12s %14s %14s", "Classes", "Layout",
+				"JVM ms", "init ms", "init alloc KB", "peak heap KB"));
+		for (String size : System.getProperty("bench.classes",
+				"10,100,1000,10000").split(",")) {
+			int classes = Integer.parseInt(size.trim());
+			File sizeDir = new File(dir, String.valueOf(classes));
+			List<File> directories = new ArrayList<File>();
+			List<File> jars = new ArrayList<File>();
+			for (int c = 0; c < components; c++) {
+				File component = new File(sizeDir, "c" + c);
+				generate(component, "synth.c" + c, classes, share);
+				File jar = new File(sizeDir, "c" + c + ".jar");
+				jar(component, jar);
+				directories.add(component);
+				jars.add(jar);
+			}
+			measure(classes, "dir", directories, forks);
+			measure(classes, "jar", jars, forks);
+		}
+	}
+
+	/*
+	 * Generates and compiles the sources of a component.
+	 */
+	private static void generate(File component, String pkg, int classes,
+			double share) throws IOException {
+		File src = new File(component.getParentFile(), component.getName()
+				+ "-src");
+		File pkgDir = new File(src, pkg.replace('.', File.separatorChar));
+		delete(src);
+		delete(component);
+		pkgDir.mkdirs();
+		component.mkdirs();
+		List<String> files = new ArrayList<String>();
+		files.add(write(pkgDir, "Service", "package " + pkg
+				+ ";\n\npublic interface Service {\n}\n"));
+		int parts = (int) Math.round(classes * share);
+		for (int i = 0; i < classes; i++) {
+			String name = "C" + i;
+			if (i < parts) {
+				files.add(write(pkgDir, name, "package " + pkg
+						+ ";\n\n@org.nucleus.core.Register(classes = Service.class)\n"
+						+ "public class " + name + " implements Service {\n"
+						+ "\t@org.nucleus.core.Inject\n\tService next;\n}\n"));
+			} else {
+				files.add(write(pkgDir, name, "package " + pkg
+						+ ";\n\npublic class " + name + " {\n\tint value;\n\n"
+						+ "\tpublic int getValue() {\n\t\treturn value;\n\t}\n}\n"));
+			}
+		}
+		new FileWriter(new File(component, "component.properties")).close();
+		List<String> options = new ArrayList<String>();
+		Collections.addAll(options, "-nowarn", "-cp",
+				System.getProperty("java.class.path"), "-d",
+				component.getPath());
+		if (Boolean.getBoolean("bench.index")) {
+			Collections.addAll(options, "-processorpath",
+					System.getProperty("java.class.path"));
+		} else {
+			options.add("-proc:none");
+		}
+		options.addAll(files);
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler.run(null, null, null, options.toArray(new String[options
+				.size()])) != 0) {
+			throw new IllegalStateException("Cannot compile " + src);
+		}
+	}
+
+	private static String write(File dir, String name, String source)
+			throws IOException {
+		File file = new File(dir, name + ".java");
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write(source);
+		} finally {
+			writer.close();
+		}
+		return file.getPath();
+	}
+
+	private static void jar(File component, File jar) throws IOException {
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		try {
+			addToJar(component, "", out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void addToJar(File dir, String prefix, JarOutputStream out)
+			throws IOException {
+		for (File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				out.putNextEntry(new JarEntry(prefix + file.getName() + "/"));
+				out.closeEntry();
+				addToJar(file, prefix + file.getName() + "/", out);
+			} else {
+				out.putNextEntry(new JarEntry(prefix + file.getName()));
+				Files.copy(file.toPath(), out);
+				out.closeEntry();
+			}
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	/*
+	 * Forks JVMs which run the Probe with the given components and prints the
+	 * averaged results.
+	 */
+	private static void measure(int classes, String layout,
+			List<File> components, int forks) throws Exception {
+		StringBuilder classpath = new StringBuilder(
+				System.getProperty("java.class.path"));
+		for (File component : components) {
+			classpath.append(File.pathSeparator).append(component.getPath());
+		}
+		double jvm = 0;
+		double[] totals = new double[3];
+		for (int i = 0; i < forks; i++) {
+			List<String> command = new ArrayList<String>();
+			command.add(new File(System.getProperty("java.home"), "bin/java")
+					.getPath());
+			String jvmArgs = System.getProperty("bench.jvmArgs", "").trim();
+			if (!jvmArgs.isEmpty()) {
+				Collections.addAll(command, jvmArgs.split("\\s+"));
+			}
+			Collections.addAll(command, "-cp", classpath.toString(),
+					Probe.class.getName());
+			long start = System.nanoTime();
+			Process process = new ProcessBuilder(command).redirectErrorStream(
+					true).start();
+			String result = null;
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					process.getInputStream()));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(RESULT)) {
+					result = line.substring(RESULT.length());
+				}
+			}
+			if (process.waitFor() != 0 || result == null) {
+				throw new IllegalStateException("Probe failed for " + classes
+						+ " classes (" + layout + ")");
+			}
+			jvm += (System.nanoTime() - start) / 1000000d;
+			String[] values = result.split(" ");
+			for (int v = 0; v < totals.length; v++) {
+				totals[v] += Double.parseDouble(values[v]);
+			}
+		}
+		System.out.println(String.format(Locale.ENGLISH,
+				"%8d %-6s %12.1f %12.1f %14.0f %14.0f", classes, layout, jvm
+						/ forks, totals[0] / forks / 1000000d, totals[1]
+						/ forks / 1024, totals[2] / forks / 1024));
+	}
+
+	/**
+	 * Runs in the forked JVM: initializes Nucleus and prints the nanoseconds
+	 * spent, the bytes allocated and the peak heap usage.
+	 */
+	public static class Probe {
+
+		/**
+		 * Performs a single measurement.
+		 */
+		public static void main(String[] args) {
+			ThreadMXBean threads = (ThreadMXBean) ManagementFactory
+					.getThreadMXBean();
+			for (MemoryPoolMXBean pool : ManagementFactory
+					.getMemoryPoolMXBeans()) {
+				pool.resetPeakUsage();
+			}
+			long allocated = getAllocatedBytes(threads);
+			long start = System.nanoTime();
+			Nucleus.init();
+			long duration = System.nanoTime() - start;
+			allocated = getAllocatedBytes(threads) - allocated;
+			long peak = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory
+					.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					peak += pool.getPeakUsage().getUsed();
+				}
+			}
+			System.out.println(RESULT + duration + " " + allocated + " "
+					+ peak);
+		}
+
+		/*
+		 * Sums the allocations of all live threads. Threads which already
+		 * terminated (like the ones of a parallel scan) are not included.
+		 */
+		private static long getAllocatedBytes(ThreadMXBean threads) {
+			long result = 0;
+			for (long bytes : threads.getThreadAllocatedBytes(threads
+					.getAllThreadIds())) {
+				result += Math.max(0, bytes);
+			}
+			return result;
+		}
+	}
+}
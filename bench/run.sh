@@ -0,0 +1,16 @@
+#!/bin/sh
+# Compiles Nucleus and the benchmarks and runs the given benchmark class
+# (all benchmarks by default). Additional JVM options can be passed using
+# JAVA_OPTS, e.g. JAVA_OPTS="-Dbench.time=500 -Dbench.threads=4".
+# The class file parser is checked first (see ClassInfoCheck), a failure
+# aborts the run.
+set -e
+cd "$(dirname "$0")/.."
+OUT=bin-bench
+rm -rf "$OUT"
+mkdir -p "$OUT/nucleus" "$OUT/bench"
+javac -proc:none -d "$OUT/nucleus" $(find src -name '*.java')
+cp -r src/META-INF src/component.properties "$OUT/nucleus/"
+javac -cp "$OUT/nucleus" -processorpath "$OUT/nucleus" -d "$OUT/bench" $(find bench -name '*.java')
+java -cp "$OUT/nucleus:$OUT/bench" org.nucleus.bench.ClassInfoCheck
+exec java $JAVA_OPTS -cp "$OUT/nucleus:$OUT/bench" org.nucleus.bench.${1:-Benchmarks}
@@ -21,31 +21,63 @@
  */
 package org.nucleus;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.JarURLConnection;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.nucleus.scan.ClassHierarchy;
+import org.nucleus.scan.ClassInfo;
+import org.nucleus.scan.ClassInterest;
+import org.nucleus.scan.ClassRouter;
+import org.nucleus.scan.ComponentIndex;
+import org.nucleus.scan.ComponentRoot;
+import org.nucleus.scan.ComponentScanner;
+import org.nucleus.scan.ScanCache;
+
 /**
  * Responsible for loading and all available modules (JAR files or file based
  * class loaders which have a component.properties in their root directory).
  * 
  * Each class implementing {@link ClassLoadAction} will be instantiated using
- * the no-args constructor and notified about each loaded class.
+ * the no-args constructor and notified about each loaded class. To decide
+ * which classes to load, the class files are parsed first (see
+ * {@link ClassInfo}). Classes are loaded without being initialized, so their
+ * static initializers only run once an action (or any other code) actually
+ * uses them. A {@link SelectiveClassLoadAction} is only notified
+ * about the classes matching its interest (see {@link ClassRouter}). If all
+ * actions are selective, classes which are of no interest are not even
+ * loaded.
+ * 
+ * If a component provides a {@link ComponentIndex} (generated at compile time
+ * by the {@link org.nucleus.scan.ComponentIndexProcessor}), only the classes
+ * listed there are loaded and the classpath scan of this component is
+ * skipped. This is only done if all actions are selective and their interests
+ * are covered by the index, otherwise the component is scanned completely.
+ * 
+ * Setting the system property <tt>nucleus.scan.parallel</tt> to
+ * <tt>true</tt> makes the kernel scan and load all components in parallel.
+ * The classes are still passed to the {@link ClassLoadAction}s in the same
+ * order as in a serial scan, while different actions are notified in
+ * parallel.
+ * 
+ * If the system property <tt>nucleus.scan.cache</tt> names a file, the scan
+ * results are stored there (see {@link ScanCache}) and reused on the next
+ * start for all components which did not change.
+ * 
+ * The time spent during the startup is recorded in a {@link StartupReport}.
  * 
  * Additionally this class provides an extension registry where arbitrary
- * objects can be registered for given classes.
+ * objects can be registered for given classes (see {@link Registry}).
  */
 public class Nucleus {
 
@@ -67,58 +99,124 @@ public class Nucleus {
 
 	}
 
+	/**
+	 * A {@link ClassLoadAction} which declares the classes it is interested
+	 * in. The action is only invoked for classes matching its interest. If all
+	 * actions are selective, classes which are of no interest to any of them
+	 * are neither loaded nor initialized.
+	 */
+	public interface SelectiveClassLoadAction extends ClassLoadAction {
+
+		/**
+		 * Returns the classes this action is interested in.
+		 */
+		ClassInterest getInterest();
+
+	}
+
+	/**
+	 * Can be registered instead of an actual object, to defer the creation of
+	 * the object until it is looked up for the first time.
+	 */
+	public interface DeferredPart {
+
+		/**
+		 * Returns the type of the object which will be created.
+		 */
+		Class<?> getType();
+
+		/**
+		 * Returns the object, creating it on the first invocation.
+		 * Implementations must be thread safe and create the object only
+		 * once. If the object cannot be created, <tt>null</tt> is returned
+		 * and lookups skip this part.
+		 */
+		Object get();
+
+	}
+
+	/**
+	 * Can be implemented by registered objects (or {@link DeferredPart}s) to
+	 * determine their position in lookup results. Objects with a lower
+	 * priority come first, objects with equal priorities remain in the order
+	 * of their registration. The priority must not change once the object is
+	 * registered.
+	 */
+	public interface Priority {
+
+		/**
+		 * The priority of objects which do not implement this interface.
+		 */
+		int DEFAULT = 100;
+
+		/**
+		 * Returns the priority of this object.
+		 */
+		int getPriority();
+
+	}
+
+	/**
+	 * System property which makes all parts wearing
+	 * {@link org.nucleus.core.Register} lazy, as if <tt>lazy = true</tt> was
+	 * specified.
+	 */
+	public static final String LAZY_PARTS = "nucleus.parts.lazy";
+
+	/**
+	 * System property which enables scanning and loading components in
+	 * parallel.
+	 */
+	public static final String PARALLEL_SCAN = "nucleus.scan.parallel";
+
+	/**
+	 * System property which makes the parts wearing
+	 * {@link org.nucleus.core.Register} be created and injected concurrently,
+	 * in the order of their dependencies.
+	 */
+	public static final String PARALLEL_PARTS = "nucleus.parts.parallel";
+
+	/**
+	 * System property which determines the number of threads used by the
+	 * parallel scan and the parallel creation of parts. Defaults to the number
+	 * of available processors.
+	 */
+	public static final String SCAN_THREADS = "nucleus.scan.threads";
+
+	/**
+	 * System property which names a file used to cache the results of the
+	 * component scan. If present, only modified components are scanned on
+	 * subsequent starts.
+	 */
+	public static final String SCAN_CACHE = "nucleus.scan.cache";
+
+	/**
+	 * System property which makes the {@link StartupReport} measure CPU times.
+	 * This is also done if the logger logs at FINE level or if a flight
+	 * recording is active.
+	 */
+	public static final String STARTUP_CPU_TIME = "nucleus.startup.cpu";
+
 	public static Logger LOG = Logger.getLogger(Nucleus.class.getName());
 	private static boolean initialized = false;
-	private static Map<Class<?>, List<Object>> model = Collections
-			.synchronizedMap(new HashMap<Class<?>, List<Object>>());
+	private static final StartupReport report = new StartupReport();
+	private static final Registry model = new Registry();
 
 	/**
 	 * Takes a given url and creates a list which contains all children of the
 	 * given url. (Works with Files and JARs).
 	 */
 	public static List<String> getChildren(URL url) {
-		List<String> result = new ArrayList<String>();
-		if ("file".equals(url.getProtocol())) {
-			File file = new File(url.getPath());
-			if (!file.isDirectory()) {
-				file = file.getParentFile();
-			}
-			addFiles(file, result, file);
-		} else if ("jar".equals(url.getProtocol())) {
+		try {
+			ComponentRoot root = ComponentRoot.open(url);
 			try {
-				JarFile jar = ((JarURLConnection) url.openConnection())
-						.getJarFile();
-				Enumeration<JarEntry> e = jar.entries();
-				while (e.hasMoreElements()) {
-					JarEntry entry = e.nextElement();
-					result.add(entry.getName());
-				}
-			} catch (IOException e) {
-				LOG.warning(e.getMessage());
-			}
-		}
-		return result;
-	}
-
-	private static void addFiles(File file, List<String> result, File reference) {
-		if (!file.exists() || !file.isDirectory()) {
-			return;
-		}
-		for (File child : file.listFiles()) {
-			if (child.isDirectory()) {
-				addFiles(child, result, reference);
-			} else {
-				String path = null;
-				while (child != null && !child.equals(reference)) {
-					if (path != null) {
-						path = child.getName() + "/" + path;
-					} else {
-						path = child.getName();
-					}
-					child = child.getParentFile();
-				}
-				result.add(path);
+				return root.list(false);
+			} finally {
+				root.close();
 			}
+		} catch (IOException e) {
+			LOG.warning(e.getMessage());
+			return new ArrayList<String>();
 		}
 	}
 
@@ -127,69 +225,88 @@ public class Nucleus {
 			return;
 		}
 		initialized = true;
+		register(StartupReport.class, report);
+		StartupReport.measureCpuTime(Boolean.getBoolean(STARTUP_CPU_TIME)
+				|| LOG.isLoggable(Level.FINE) || StartupReport.isRecording());
+		StartupReport.Stopwatch total = new StartupReport.Stopwatch();
 		try {
 			Nucleus.LOG.info("Nucleus Microkernel is starting up...");
 			Nucleus.LOG.info("-------------------------------------");
-			List<URL> urls = Collections.list(Nucleus.class.getClassLoader()
+			ClassLoader classLoader = Nucleus.class.getClassLoader();
+			List<URL> urls = Collections.list(classLoader
 					.getResources("component.properties"));
-			List<Class<?>> classes = new ArrayList<Class<?>>();
-			List<ClassLoadAction> loaders = new ArrayList<ClassLoadAction>();
-			for (URL url : urls) {
-				LOG.info("Loading component: " + getName(url) + " form "
-						+ url.toString());
-				for (String relativePath : getChildren(url)) {
-					if (relativePath.endsWith(".class")) {
-						String className = relativePath.substring(0,
-								relativePath.length() - 6).replace("/", ".");
-						try {
-							LOG.fine("Found class: " + className);
-							Class<?> clazz = Class.forName(className);
-							classes.add(clazz);
-							if (ClassLoadAction.class.isAssignableFrom(clazz)
-									&& !clazz.isInterface()) {
-								try {
-									ClassLoadAction loader = (ClassLoadAction) clazz
-											.newInstance();
-									loaders.add(loader);
-								} catch (Exception e) {
-									LOG.warning("Error creating ClassLoadAction: "
-											+ className + ": " + e.getMessage());
-								}
-							}
-						} catch (ClassNotFoundException e) {
-							LOG.warning("Failed to load class: " + className
-									+ ": " + e.getMessage());
-						} catch (NoClassDefFoundError e) {
-							LOG.warning("Failed to load dependend class: "
-									+ className + ": " + e.getMessage());
-						}
-					}
-				}
+			ForkJoinPool pool = null;
+			if (Boolean.getBoolean(PARALLEL_SCAN)) {
+				pool = new ForkJoinPool(Math.max(1, Integer.getInteger(
+						SCAN_THREADS, Runtime.getRuntime()
+								.availableProcessors())));
 			}
+			List<ClassLoadAction> loaders;
+			try {
+				StartupReport.Stopwatch watch = new StartupReport.Stopwatch();
+				ComponentScanner scanner = createScanner(pool, classLoader);
+				List<ClassInfo> infos = scanner.scan(urls);
+				report.recordPhase("scan", watch.wallNanos(), watch.cpuNanos());
 
-			Nucleus.LOG.info("Processing Classes...");
-			// Handle all loaded classes.
-			for (Class<?> clazz : classes) {
-				for (ClassLoadAction loader : loaders) {
-					try {
-						loader.handle(clazz);
-					} catch (Exception e) {
-						LOG.warning("Failed to call the class load action: "
-								+ loader.getClass() + " for: " + clazz + ": "
-								+ e.getMessage());
+				watch = new StartupReport.Stopwatch();
+				ClassHierarchy hierarchy = new ClassHierarchy(infos,
+						classLoader);
+				loaders = createLoaders(infos, hierarchy, classLoader);
+				if (scanner.hasIndexedComponents()
+						&& !isCoveredByIndex(loaders)) {
+					LOG.fine("Component index insufficient, scanning all classes");
+					infos = scanner.rescanIndexed();
+					hierarchy = new ClassHierarchy(infos, classLoader);
+				}
+				ClassRouter router = createRouter(loaders, hierarchy);
+				List<ClassInfo> relevant = new ArrayList<ClassInfo>();
+				for (ClassInfo info : infos) {
+					if (router.isRelevant(info)) {
+						relevant.add(info);
 					}
 				}
+				if (LOG.isLoggable(Level.FINE)) {
+					LOG.fine("Loading " + relevant.size() + " of "
+							+ infos.size() + " classes");
+				}
+				Map<String, Class<?>> classes = new HashMap<String, Class<?>>();
+				for (Class<?> clazz : scanner.load(relevant)) {
+					classes.put(clazz.getName(), clazz);
+				}
+				report.recordPhase("class load", watch.wallNanos(),
+						watch.cpuNanos());
+
+				Nucleus.LOG.info("Processing Classes...");
+				watch = new StartupReport.Stopwatch();
+				dispatch(loaders, router.route(relevant), classes, pool);
+				report.recordPhase("handle", watch.wallNanos(),
+						watch.cpuNanos());
+			} finally {
+				if (pool != null) {
+					pool.shutdown();
+				}
 			}
 
 			Nucleus.LOG.info("Finalizing setup...");
+			StartupReport.Stopwatch completion = new StartupReport.Stopwatch();
 			// Notify loaders we're complete
 			for (ClassLoadAction loader : loaders) {
+				StartupReport.Stopwatch watch = new StartupReport.Stopwatch();
 				try {
 					loader.loadingCompleted();
 				} catch (Exception e) {
 					LOG.warning("Failed to complete: " + loader.getClass()
 							+ ": " + e.getMessage());
 				}
+				report.recordAction(loader.getClass(), "loadingCompleted",
+						watch.wallNanos(), watch.cpuNanos());
+			}
+			report.recordPhase("loadingCompleted", completion.wallNanos(),
+					completion.cpuNanos());
+			report.recordPhase("total", total.wallNanos(), total.cpuNanos());
+			report.emitEvents();
+			if (LOG.isLoggable(Level.FINE)) {
+				LOG.fine("Startup report:\n" + report);
 			}
 			Nucleus.LOG.info("Nucleus is ready for operation...");
 			Nucleus.LOG.info("-------------------------------------");
@@ -198,87 +315,233 @@ public class Nucleus {
 		}
 	}
 
-	private static String getName(URL url) {
-		try {
-			BufferedReader reader = new BufferedReader(new InputStreamReader(
-					url.openStream()));
-			try {
-				return reader.readLine();
-			} finally {
-				reader.close();
+	/*
+	 * Creates an instance of each ClassLoadAction found in the given classes.
+	 */
+	private static List<ClassLoadAction> createLoaders(List<ClassInfo> infos,
+			ClassHierarchy hierarchy, ClassLoader classLoader) {
+		List<ClassLoadAction> loaders = new ArrayList<ClassLoadAction>();
+		for (ClassInfo info : infos) {
+			if (!info.isInterface()
+					&& hierarchy.isSubtypeOf(info, ClassLoadAction.class)) {
+				try {
+					loaders.add((ClassLoadAction) Class
+							.forName(info.getName(), true, classLoader)
+							.getDeclaredConstructor().newInstance());
+				} catch (InvocationTargetException e) {
+					LOG.warning("Error creating ClassLoadAction: "
+							+ info.getName() + ": " + e.getCause().getMessage());
+				} catch (Throwable e) {
+					LOG.warning("Error creating ClassLoadAction: "
+							+ info.getName() + ": " + e.getMessage());
+				}
 			}
-		} catch (IOException e) {
-			return "unknown";
 		}
+		return loaders;
+	}
+
+	/*
+	 * Determines if the component index lists all classes the given actions
+	 * are interested in.
+	 */
+	private static boolean isCoveredByIndex(List<ClassLoadAction> loaders) {
+		for (ClassLoadAction loader : loaders) {
+			if (!(loader instanceof SelectiveClassLoadAction)
+					|| !ComponentIndex.covers(((SelectiveClassLoadAction) loader)
+							.getInterest())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Compiles the interests of all actions. Actions which are not selective
+	 * are interested in all classes.
+	 */
+	private static ClassRouter createRouter(List<ClassLoadAction> loaders,
+			ClassHierarchy hierarchy) {
+		List<ClassInterest> interests = new ArrayList<ClassInterest>();
+		for (ClassLoadAction loader : loaders) {
+			if (loader instanceof SelectiveClassLoadAction) {
+				interests.add(((SelectiveClassLoadAction) loader)
+						.getInterest());
+			} else {
+				interests.add(null);
+			}
+		}
+		return new ClassRouter(interests, hierarchy);
+	}
+
+	/*
+	 * Hands each action the classes routed to it. Each action sees its classes
+	 * in order on a single thread, while different actions run in parallel if
+	 * a pool is given.
+	 */
+	private static void dispatch(List<ClassLoadAction> loaders,
+			List<List<ClassInfo>> routes, final Map<String, Class<?>> classes,
+			ForkJoinPool pool) {
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		for (int i = 0; i < loaders.size(); i++) {
+			final ClassLoadAction loader = loaders.get(i);
+			final List<ClassInfo> route = routes.get(i);
+			Runnable task = new Runnable() {
+				@Override
+				public void run() {
+					StartupReport.Stopwatch watch = new StartupReport.Stopwatch();
+					for (ClassInfo info : route) {
+						Class<?> clazz = classes.get(info.getName());
+						if (clazz != null) {
+							handle(loader, clazz);
+						}
+					}
+					report.recordAction(loader.getClass(), "handle",
+							watch.wallNanos(), watch.cpuNanos());
+				}
+			};
+			if (pool == null) {
+				task.run();
+			} else {
+				tasks.add(pool.submit(task));
+			}
+		}
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+	}
+
+	private static void handle(ClassLoadAction loader, Class<?> clazz) {
+		long start = System.nanoTime();
+		try {
+			loader.handle(clazz);
+		} catch (Exception e) {
+			LOG.warning("Failed to call the class load action: "
+					+ loader.getClass() + " for: " + clazz + ": "
+					+ e.getMessage());
+		}
+		report.recordHandleCall(loader.getClass(), clazz, System.nanoTime()
+				- start);
+	}
+
+	private static ComponentScanner createScanner(ForkJoinPool pool,
+			ClassLoader classLoader) {
+		ComponentScanner scanner = new ComponentScanner(pool, classLoader);
+		scanner.useReport(report);
+		String cacheFile = System.getProperty(SCAN_CACHE);
+		if (cacheFile != null) {
+			scanner.useCache(ScanCache.open(new File(cacheFile)));
+		}
+		return scanner;
+	}
+
+	/**
+	 * Returns the timings recorded during {@link #init()}.
+	 */
+	public static StartupReport getStartupReport() {
+		return report;
 	}
 
 	/**
 	 * Finds an instance for the given class.
 	 */
-	@SuppressWarnings("unchecked")
 	public static <P> P findPart(Class<P> clazz) {
 		if (!initialized) {
 			init();
 		}
-		List<?> objects = model.get(clazz);
-		if (objects == null || objects.isEmpty()) {
-			return null;
-		}
-		Object object = objects.get(0);
-		if (!clazz.isAssignableFrom(object.getClass())) {
-			throw new IllegalArgumentException(
-					"The found part did not implement the requested class: "
-							+ clazz + " resolved to: " + object);
+		return model.findPart(clazz);
+	}
+
+	/**
+	 * Finds the instance registered with the given name for the given class.
+	 */
+	public static <P> P findPart(Class<P> clazz, String name) {
+		if (!initialized) {
+			init();
 		}
-		return (P) object;
+		return model.findPart(clazz, name);
 	}
 
 	/**
-	 * Finds all instances registered for the given class.
+	 * Finds all instances registered for the given class. The returned list is
+	 * read-only and shared by all callers until another object is registered:
+	 * copy it before sorting or otherwise modifying it.
 	 */
-	@SuppressWarnings("unchecked")
 	public static <P> List<P> findParts(Class<P> clazz) {
 		if (!initialized) {
 			init();
 		}
-		List<Object> objects = findAll(clazz);
-		List<P> result = new ArrayList<P>(objects.size());
-		for (Object object : objects) {
-			if (clazz.isAssignableFrom(object.getClass())) {
-				result.add((P) object);
-			}
+		return model.findParts(clazz);
+	}
 
+	/**
+	 * Finds all instances which implement the given class, no matter which
+	 * class they were registered for. Like {@link #findParts(Class)}, the
+	 * returned list is read-only and shared.
+	 */
+	public static <P> List<P> findPartsAssignableTo(Class<P> clazz) {
+		if (!initialized) {
+			init();
 		}
-		return result;
+		return model.findPartsAssignableTo(clazz);
 	}
 
 	/**
 	 * Finds all objects registered for the given class. There is no required
-	 * relationship between the given class and the returned objects.
+	 * relationship between the given class and the returned objects. Like
+	 * {@link #findParts(Class)}, the returned list is read-only and shared.
 	 */
 	public static List<Object> findAll(Class<?> clazz) {
 		if (!initialized) {
 			init();
 		}
-		List<Object> objects = model.get(clazz);
-		if (objects == null || objects.isEmpty()) {
-			return Collections.emptyList();
+		return model.findAll(clazz);
+	}
+
+	/**
+	 * Creates a child registry which overlays the global model. Objects
+	 * registered in the child shadow the global ones for the same class (or
+	 * name), all other lookups see the global model. Use
+	 * {@link org.nucleus.core.Factory#inject(Object, Registry)} to inject
+	 * objects from a scope.
+	 */
+	public static Registry createScope() {
+		if (!initialized) {
+			init();
 		}
-		return objects;
+		return model.createChild();
 	}
 
 	/**
-	 * Registers a new object for the given class.
+	 * Returns the generation of the model, which changes whenever an object
+	 * is registered. This can be used to validate cached lookups.
+	 */
+	public static long getGeneration() {
+		return model.getGeneration();
+	}
+
+	/**
+	 * Registers a new object for the given class. If a {@link DeferredPart} is
+	 * given, its object is created on the first lookup of one of the classes
+	 * it is registered for.
 	 */
 	public static void register(Class<?> clazz, Object object) {
-		Nucleus.LOG.fine("Registering: " + object + " [" + object.getClass()
-				+ "] for: " + clazz);
-		List<Object> objects = model.get(clazz);
-		if (objects == null) {
-			objects = new ArrayList<Object>();
-			model.put(clazz, objects);
+		if (LOG.isLoggable(Level.FINE)) {
+			LOG.fine("Registering: " + object + " [" + object.getClass()
+					+ "] for: " + clazz);
+		}
+		model.register(clazz, object);
+	}
+
+	/**
+	 * Registers a new object with the given name for the given class. Named
+	 * objects are also returned by the unnamed lookups.
+	 */
+	public static void register(Class<?> clazz, String name, Object object) {
+		if (LOG.isLoggable(Level.FINE)) {
+			LOG.fine("Registering: " + object + " [" + object.getClass()
+					+ "] for: " + clazz + " as: " + name);
 		}
-		objects.add(object);
+		model.register(clazz, name, object);
 	}
 
-}
\ No newline at end of file
+}
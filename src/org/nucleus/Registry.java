@@ -0,0 +1,535 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.nucleus.Nucleus.DeferredPart;
+import org.nucleus.Nucleus.Priority;
+
+/**
+ * Keeps the objects registered for each class.
+ * <p>
+ * For each class an immutable snapshot array is stored in a
+ * {@link ConcurrentHashMap}. Registering an object replaces the snapshot by a
+ * copy (using compare and set), therefore lookups never block and always see
+ * a consistent list, while registrations never block each other.
+ * <p>
+ * The results of lookups (the resolved and type checked objects) are cached
+ * per class in a {@link ClassValue}. Repeated lookups therefore return the
+ * same (immutable) instance without allocating or performing any reflective
+ * checks. Registering an object for a class invalidates its cached results.
+ * Child registries keep these results in a map instead, as each ClassValue
+ * adds an entry to every class it is used for, which is only reclaimed
+ * lazily.
+ * <p>
+ * The snapshots are kept sorted by {@link Priority} (in a stable way), so
+ * that lookups return ordered lists without sorting them.
+ * <p>
+ * Additionally each object is added to a type closure index, which contains
+ * it for every superclass and interface of its type. This permits to find all
+ * objects implementing a given type in constant time.
+ * <p>
+ * Objects can be registered with a name, which is unique per class. The names
+ * of each class are kept in an immutable hash map (which is also replaced on
+ * registration), so that looking up a named object takes constant time.
+ * <p>
+ * Each registration increments the generation of the registry (after the
+ * object is visible to lookups). Caches like {@link org.nucleus.core.Part}
+ * compare the generation to decide whether a cached lookup is still valid.
+ * <p>
+ * A child registry (see {@link #createChild()}) overlays its parent: for each
+ * class (and each name) its own registrations shadow the ones of the parent,
+ * all other lookups are delegated to the parent. Creating a child copies
+ * nothing, therefore children can be created per tenant or even per request.
+ */
+public class Registry {
+
+	/*
+	 * The cached results for the snapshot of a class. The results are filled
+	 * on demand, as resolving a DeferredPart creates its object. Computing them
+	 * is idempotent, so concurrent fills are harmless.
+	 */
+	private static class View {
+
+		final boolean valid;
+		final Object[] objects;
+		final long parentGeneration;
+		volatile Object first;
+		volatile List<Object> all;
+		volatile List<Object> parts;
+
+		View(boolean valid, Object[] objects) {
+			this(valid, objects, 0);
+		}
+
+		View(boolean valid, Object[] objects, long parentGeneration) {
+			this.valid = valid;
+			this.objects = objects;
+			this.parentGeneration = parentGeneration;
+		}
+	}
+
+	private final Registry parent;
+
+	private final ConcurrentMap<Class<?>, Object[]> parts = new ConcurrentHashMap<Class<?>, Object[]>();
+
+	private final ConcurrentMap<Class<?>, Map<String, Object>> names = new ConcurrentHashMap<Class<?>, Map<String, Object>>();
+
+	private final ConcurrentMap<Class<?>, Object[]> closure = new ConcurrentHashMap<Class<?>, Object[]>();
+
+	private final Views views;
+
+	private final Views closureViews;
+
+	private final AtomicLong generation = new AtomicLong();
+
+	/*
+	 * Holds the current view of each class.
+	 */
+	private abstract static class Views {
+		abstract AtomicReference<View> get(Class<?> type);
+	}
+
+	private static class ClassValueViews extends Views {
+
+		private final ClassValue<AtomicReference<View>> views = new ClassValue<AtomicReference<View>>() {
+			@Override
+			protected AtomicReference<View> computeValue(Class<?> type) {
+				return new AtomicReference<View>(new View(false, null));
+			}
+		};
+
+		@Override
+		AtomicReference<View> get(Class<?> type) {
+			return views.get(type);
+		}
+	}
+
+	private static class MapViews extends Views {
+
+		private final ConcurrentMap<Class<?>, AtomicReference<View>> views = new ConcurrentHashMap<Class<?>, AtomicReference<View>>();
+
+		@Override
+		AtomicReference<View> get(Class<?> type) {
+			AtomicReference<View> result = views.get(type);
+			if (result == null) {
+				result = new AtomicReference<View>(new View(false, null));
+				AtomicReference<View> existing = views.putIfAbsent(type,
+						result);
+				if (existing != null) {
+					result = existing;
+				}
+			}
+			return result;
+		}
+	}
+
+	/*
+	 * Contains all superclasses and interfaces of a class (including itself).
+	 */
+	private static final ClassValue<Class<?>[]> SUPERTYPES = new ClassValue<Class<?>[]>() {
+		@Override
+		protected Class<?>[] computeValue(Class<?> type) {
+			Set<Class<?>> result = new LinkedHashSet<Class<?>>();
+			collectSupertypes(type, result);
+			return result.toArray(new Class<?>[result.size()]);
+		}
+	};
+
+	private static void collectSupertypes(Class<?> type, Set<Class<?>> result) {
+		if (type != null && result.add(type)) {
+			collectSupertypes(type.getSuperclass(), result);
+			for (Class<?> iface : type.getInterfaces()) {
+				collectSupertypes(iface, result);
+			}
+		}
+	}
+
+	/**
+	 * Creates a new and empty registry.
+	 */
+	public Registry() {
+		this(null);
+	}
+
+	private Registry(Registry parent) {
+		this.parent = parent;
+		this.views = parent == null ? new ClassValueViews() : new MapViews();
+		this.closureViews = parent == null ? new ClassValueViews()
+				: new MapViews();
+	}
+
+	/**
+	 * Creates a child registry which overlays this one.
+	 */
+	public Registry createChild() {
+		return new Registry(this);
+	}
+
+	/**
+	 * Returns the registry overlaid by this one, or <tt>null</tt> if this is
+	 * not a child registry.
+	 */
+	public Registry getParent() {
+		return parent;
+	}
+
+	private View getView(Class<?> clazz) {
+		return getView(views, parts, clazz);
+	}
+
+	/*
+	 * The closure of a child contains its own objects, followed by the ones of
+	 * its parent, which are merged by priority. The view is therefore also
+	 * invalid once the generation of the parent changed.
+	 */
+	private View getClosureView(Class<?> clazz) {
+		if (parent == null) {
+			return getView(closureViews, closure, clazz);
+		}
+		AtomicReference<View> ref = closureViews.get(clazz);
+		View view = ref.get();
+		long parentGeneration = parent.getGeneration();
+		if (view.valid && view.parentGeneration == parentGeneration) {
+			return view;
+		}
+		View result = new View(true, merge(closure.get(clazz),
+				parent.getClosureView(clazz).objects), parentGeneration);
+		ref.compareAndSet(view, result);
+		return result;
+	}
+
+	/*
+	 * Merges both sorted arrays, keeping the own objects first for equal
+	 * priorities and skipping inherited ones which are also contained in own.
+	 */
+	private static Object[] merge(Object[] own, Object[] inherited) {
+		if (own == null || inherited == null) {
+			return own == null ? inherited : own;
+		}
+		List<Object> result = new ArrayList<Object>(own.length
+				+ inherited.length);
+		int i = 0;
+		for (Object object : inherited) {
+			int priority = getPriority(object);
+			while (i < own.length && getPriority(own[i]) <= priority) {
+				result.add(own[i++]);
+			}
+			if (!containsIdentical(own, object)) {
+				result.add(object);
+			}
+		}
+		while (i < own.length) {
+			result.add(own[i++]);
+		}
+		return result.toArray();
+	}
+
+	/*
+	 * Returns the cached results for the given class. Invalidation replaces
+	 * the view by a new invalid one, so that a view computed from an outdated
+	 * snapshot can never be stored.
+	 */
+	private static View getView(Views views,
+			ConcurrentMap<Class<?>, Object[]> source, Class<?> clazz) {
+		AtomicReference<View> ref = views.get(clazz);
+		View view = ref.get();
+		if (view.valid) {
+			return view;
+		}
+		View result = new View(true, source.get(clazz));
+		ref.compareAndSet(view, result);
+		return result;
+	}
+
+	/**
+	 * Finds an instance for the given class.
+	 */
+	@SuppressWarnings("unchecked")
+	public <P> P findPart(Class<P> clazz) {
+		if (parent != null && !parts.containsKey(clazz)) {
+			return parent.findPart(clazz);
+		}
+		View view = getView(clazz);
+		if (view.objects == null) {
+			return null;
+		}
+		Object object = view.first;
+		if (object == null) {
+			// Skip parts which could not be created
+			for (int i = 0; object == null && i < view.objects.length; i++) {
+				object = resolve(view.objects[i]);
+			}
+			if (object == null) {
+				return null;
+			}
+			if (!clazz.isAssignableFrom(object.getClass())) {
+				throw new IllegalArgumentException(
+						"The found part did not implement the requested class: "
+								+ clazz + " resolved to: " + object);
+			}
+			view.first = object;
+		}
+		return (P) object;
+	}
+
+	/**
+	 * Finds the instance registered with the given name for the given class.
+	 */
+	@SuppressWarnings("unchecked")
+	public <P> P findPart(Class<P> clazz, String name) {
+		Map<String, Object> named = names.get(clazz);
+		Object object = named == null ? null : named.get(name);
+		if (object == null) {
+			return parent == null ? null : parent.findPart(clazz, name);
+		}
+		object = resolve(object);
+		if (object == null) {
+			return null;
+		}
+		if (!clazz.isInstance(object)) {
+			throw new IllegalArgumentException(
+					"The found part did not implement the requested class: "
+							+ clazz + " resolved to: " + object);
+		}
+		return (P) object;
+	}
+
+	/**
+	 * Finds all instances registered for the given class, ordered by
+	 * {@link Priority}. The returned list is read-only and shared by all
+	 * callers until another object is registered: copy it before sorting or
+	 * otherwise modifying it.
+	 */
+	public <P> List<P> findParts(Class<P> clazz) {
+		if (parent != null && !parts.containsKey(clazz)) {
+			return parent.findParts(clazz);
+		}
+		return findParts(getView(clazz), clazz);
+	}
+
+	/**
+	 * Finds all instances which implement the given class, no matter which
+	 * class they were registered for. Each instance is contained once, even
+	 * if it was registered for several classes. For a child registry, its own
+	 * objects are combined with the ones of its parent. Like
+	 * {@link #findParts(Class)}, the returned list is read-only and shared.
+	 */
+	public <P> List<P> findPartsAssignableTo(Class<P> clazz) {
+		if (parent != null && !closure.containsKey(clazz)) {
+			return parent.findPartsAssignableTo(clazz);
+		}
+		return findParts(getClosureView(clazz), clazz);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <P> List<P> findParts(View view, Class<P> clazz) {
+		List<Object> result = view.parts;
+		if (result == null) {
+			List<Object> all = findAll(view);
+			result = new ArrayList<Object>(all.size());
+			for (Object object : all) {
+				if (clazz.isAssignableFrom(object.getClass())) {
+					result.add(object);
+				}
+			}
+			result = Collections.unmodifiableList(result);
+			view.parts = result;
+		}
+		return (List<P>) result;
+	}
+
+	/**
+	 * Finds all objects registered for the given class. There is no required
+	 * relationship between the given class and the returned objects. Like
+	 * {@link #findParts(Class)}, the returned list is read-only and shared.
+	 */
+	public List<Object> findAll(Class<?> clazz) {
+		if (parent != null && !parts.containsKey(clazz)) {
+			return parent.findAll(clazz);
+		}
+		return findAll(getView(clazz));
+	}
+
+	private List<Object> findAll(View view) {
+		List<Object> result = view.all;
+		if (result == null) {
+			if (view.objects == null) {
+				result = Collections.emptyList();
+			} else {
+				Object[] objects = new Object[view.objects.length];
+				int size = 0;
+				for (Object object : view.objects) {
+					object = resolve(object);
+					if (object != null) {
+						objects[size++] = object;
+					}
+				}
+				if (size < objects.length) {
+					objects = Arrays.copyOf(objects, size);
+				}
+				result = Collections.unmodifiableList(Arrays.asList(objects));
+			}
+			view.all = result;
+		}
+		return result;
+	}
+
+	private static boolean containsIdentical(Object[] objects, Object object) {
+		for (Object existing : objects) {
+			if (existing == object) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int getPriority(Object object) {
+		if (object instanceof Priority) {
+			return ((Priority) object).getPriority();
+		}
+		return Priority.DEFAULT;
+	}
+
+	/*
+	 * Creates the actual object if a DeferredPart was registered. Returns null
+	 * if it cannot be created.
+	 */
+	private static Object resolve(Object object) {
+		if (object instanceof DeferredPart) {
+			return ((DeferredPart) object).get();
+		}
+		return object;
+	}
+
+	/**
+	 * Registers a new object for the given class. If a {@link DeferredPart} is
+	 * given, its object is created on the first lookup of one of the classes
+	 * it is registered for.
+	 */
+	public void register(Class<?> clazz, Object object) {
+		register(clazz, null, object);
+	}
+
+	/**
+	 * Registers a new object with the given name for the given class. The
+	 * object is also returned by the unnamed lookups of the class. If the name
+	 * is already taken for the class, only the first object can be found by
+	 * that name.
+	 */
+	public void register(Class<?> clazz, String name, Object object) {
+		if (name != null && !addName(clazz, name, object)) {
+			Nucleus.LOG.warning("The name '" + name
+					+ "' is already registered for " + clazz.getName()
+					+ " - ignoring it for: " + object);
+		}
+		int priority = getPriority(object);
+		add(parts, clazz, object, priority, false);
+		views.get(clazz).set(new View(false, null));
+		Class<?> type = object instanceof DeferredPart ? ((DeferredPart) object)
+				.getType() : object.getClass();
+		for (Class<?> supertype : SUPERTYPES.get(type)) {
+			if (add(closure, supertype, object, priority, true)) {
+				closureViews.get(supertype).set(new View(false, null));
+			}
+		}
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Returns the generation of this registry, which changes whenever an
+	 * object is registered (in this registry or one of its parents).
+	 */
+	public long getGeneration() {
+		if (parent != null) {
+			return generation.get() + parent.getGeneration();
+		}
+		return generation.get();
+	}
+
+	private boolean addName(Class<?> clazz, String name, Object object) {
+		while (true) {
+			Map<String, Object> named = names.get(clazz);
+			if (named == null) {
+				if (names.putIfAbsent(clazz,
+						Collections.singletonMap(name, object)) == null) {
+					return true;
+				}
+			} else {
+				if (named.containsKey(name)) {
+					return false;
+				}
+				Map<String, Object> copy = new HashMap<String, Object>(named);
+				copy.put(name, object);
+				if (names.replace(clazz, named,
+						Collections.unmodifiableMap(copy))) {
+					return true;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Inserts the object into the snapshot of the given class, behind all
+	 * objects with the same or a lower priority. If unique is set, an object
+	 * which is already contained (by identity) is not added again.
+	 */
+	private static boolean add(ConcurrentMap<Class<?>, Object[]> source,
+			Class<?> clazz, Object object, int priority, boolean unique) {
+		while (true) {
+			Object[] objects = source.get(clazz);
+			if (objects == null) {
+				if (source.putIfAbsent(clazz, new Object[] { object }) == null) {
+					return true;
+				}
+			} else {
+				if (unique && containsIdentical(objects, object)) {
+					return false;
+				}
+				int index = objects.length;
+				while (index > 0 && priority < getPriority(objects[index - 1])) {
+					index--;
+				}
+				Object[] copy = new Object[objects.length + 1];
+				System.arraycopy(objects, 0, copy, 0, index);
+				copy[index] = object;
+				System.arraycopy(objects, index, copy, index + 1,
+						objects.length - index);
+				if (source.replace(clazz, objects, copy)) {
+					return true;
+				}
+			}
+		}
+	}
+}
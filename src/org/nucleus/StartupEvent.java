@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import org.nucleus.StartupReport.PartTiming;
+import org.nucleus.StartupReport.Timing;
+
+/**
+ * JFR event which carries a single measurement of the {@link StartupReport}.
+ * This class is only loaded if JFR is available.
+ */
+@Name("org.nucleus.Startup")
+@Label("Nucleus Startup")
+@Category("Nucleus")
+class StartupEvent extends Event {
+
+	@Label("Kind")
+	String kind;
+
+	@Label("Name")
+	String name;
+
+	@Label("Wall Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long wallTime;
+
+	@Label("CPU Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long cpuTime;
+
+	static void emit(StartupReport report) {
+		if (!new StartupEvent().isEnabled()) {
+			return;
+		}
+		emit("phase", report.getPhases());
+		emit("component", report.getComponents());
+		emit("action", report.getActions());
+		emit("handle", report.getSlowestHandleCalls());
+		for (PartTiming part : report.getParts()) {
+			emit("construction", part.getName(), part.getConstructionNanos(),
+					0);
+			emit("injection", part.getName(), part.getInjectionNanos(), 0);
+		}
+	}
+
+	private static void emit(String kind, Iterable<Timing> timings) {
+		for (Timing timing : timings) {
+			emit(kind, timing.getName(), timing.getWallNanos(),
+					timing.getCpuNanos());
+		}
+	}
+
+	private static void emit(String kind, String name, long wall, long cpu) {
+		StartupEvent event = new StartupEvent();
+		event.kind = kind;
+		event.name = name;
+		event.wallTime = wall;
+		event.cpuTime = cpu;
+		event.commit();
+	}
+}
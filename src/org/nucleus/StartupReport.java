@@ -0,0 +1,404 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Level;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Records where the time is spent while {@link Nucleus#init()} runs: per
+ * component, per phase (scan, class load, handle, loading completed), per
+ * {@link Nucleus.ClassLoadAction}, the slowest individual
+ * {@link Nucleus.ClassLoadAction#handle(Class)} calls and the construction
+ * and injection time of each registered part.
+ * <p>
+ * The report is registered in the model for its own class and available via
+ * {@link Nucleus#getStartupReport()}. If a flight recording is active, all
+ * measurements are also emitted as JFR events.
+ * <p>
+ * CPU times are measured for the thread which performed the work. Work which
+ * is split up across several threads (e.g. large components in parallel mode)
+ * is therefore only partially accounted for. As accessing the thread MXBean
+ * is expensive during a cold start, CPU times are only measured if the report
+ * is requested up front (see {@link Nucleus#STARTUP_CPU_TIME}), otherwise
+ * they are reported as 0.
+ */
+public class StartupReport {
+
+	/**
+	 * Number of handle calls kept by {@link #getSlowestHandleCalls()}.
+	 */
+	public static final int SLOWEST_HANDLE_CALLS = 20;
+
+	private static volatile boolean measureCpuTime;
+
+	/*
+	 * Holds the MXBean, so that java.management is only initialized once CPU
+	 * times are actually measured.
+	 */
+	private static class Threads {
+		static final ThreadMXBean BEAN = ManagementFactory.getThreadMXBean();
+	}
+
+	/**
+	 * The measured wall and CPU time of a single item.
+	 */
+	public static class Timing {
+
+		private final String name;
+		private long wallNanos;
+		private long cpuNanos;
+		private int count;
+
+		Timing(String name) {
+			this.name = name;
+		}
+
+		synchronized void add(long wall, long cpu) {
+			wallNanos += wall;
+			cpuNanos += cpu;
+			count++;
+		}
+
+		/**
+		 * Returns the name of the measured item.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the elapsed wall clock time in nanoseconds.
+		 */
+		public synchronized long getWallNanos() {
+			return wallNanos;
+		}
+
+		/**
+		 * Returns the consumed CPU time in nanoseconds or 0 if not supported
+		 * by the JVM.
+		 */
+		public synchronized long getCpuNanos() {
+			return cpuNanos;
+		}
+
+		/**
+		 * Returns how often the item was measured.
+		 */
+		public synchronized int getCount() {
+			return count;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-60s %8.1f ms wall %8.1f ms cpu %6d x",
+					name, getWallNanos() / 1000000d,
+					getCpuNanos() / 1000000d, getCount());
+		}
+	}
+
+	/**
+	 * The time spent to construct and inject a part.
+	 */
+	public static class PartTiming {
+
+		private final String name;
+		private long constructionNanos;
+		private long injectionNanos;
+
+		PartTiming(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Returns the name of the class of the part.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Returns the time spent in the constructor in nanoseconds.
+		 */
+		public synchronized long getConstructionNanos() {
+			return constructionNanos;
+		}
+
+		/**
+		 * Returns the time spent to inject the dependencies in nanoseconds.
+		 */
+		public synchronized long getInjectionNanos() {
+			return injectionNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-60s %8.1f ms construction %8.1f ms injection",
+					name, getConstructionNanos() / 1000000d,
+					getInjectionNanos() / 1000000d);
+		}
+	}
+
+	/**
+	 * Measures the wall and CPU time of the current thread since its creation.
+	 */
+	public static class Stopwatch {
+
+		private final long wall = System.nanoTime();
+		private final long cpu = currentCpuTime();
+
+		/**
+		 * Returns the elapsed wall clock time in nanoseconds.
+		 */
+		public long wallNanos() {
+			return System.nanoTime() - wall;
+		}
+
+		/**
+		 * Returns the CPU time consumed by the current thread in nanoseconds.
+		 */
+		public long cpuNanos() {
+			return currentCpuTime() - cpu;
+		}
+	}
+
+	private static final Comparator<Timing> BY_WALL_TIME = new Comparator<Timing>() {
+		@Override
+		public int compare(Timing a, Timing b) {
+			return Long.valueOf(a.getWallNanos()).compareTo(b.getWallNanos());
+		}
+	};
+
+	private final Map<String, Timing> components = new LinkedHashMap<String, Timing>();
+	private final Map<String, Timing> phases = new LinkedHashMap<String, Timing>();
+	private final Map<String, Timing> actions = new LinkedHashMap<String, Timing>();
+	private final Map<String, PartTiming> parts = new LinkedHashMap<String, PartTiming>();
+	private final PriorityQueue<Timing> slowestHandleCalls = new PriorityQueue<Timing>(
+			SLOWEST_HANDLE_CALLS + 1, BY_WALL_TIME);
+
+	/**
+	 * Returns the CPU time consumed by the current thread in nanoseconds or 0
+	 * if this is not measured or not supported by the JVM.
+	 */
+	public static long currentCpuTime() {
+		if (!measureCpuTime
+				|| !Threads.BEAN.isCurrentThreadCpuTimeSupported()) {
+			return 0;
+		}
+		return Threads.BEAN.getCurrentThreadCpuTime();
+	}
+
+	/*
+	 * Determines whether CPU times are measured from now on.
+	 */
+	static void measureCpuTime(boolean enabled) {
+		measureCpuTime = enabled;
+	}
+
+	/*
+	 * Determines if the flight recorder is running, without loading any event
+	 * class (registering an event class is expensive).
+	 */
+	static boolean isRecording() {
+		try {
+			return FlightRecorder.isInitialized();
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+	private static Timing get(Map<String, Timing> timings, String name) {
+		synchronized (timings) {
+			Timing timing = timings.get(name);
+			if (timing == null) {
+				timing = new Timing(name);
+				timings.put(name, timing);
+			}
+			return timing;
+		}
+	}
+
+	/**
+	 * Records the time spent to scan the given component.
+	 */
+	public void recordComponent(String component, long wallNanos,
+			long cpuNanos) {
+		get(components, component).add(wallNanos, cpuNanos);
+	}
+
+	/**
+	 * Records the time spent in the given phase of the startup.
+	 */
+	public void recordPhase(String phase, long wallNanos, long cpuNanos) {
+		get(phases, phase).add(wallNanos, cpuNanos);
+	}
+
+	/**
+	 * Records the time spent by the given action. The method is the name of
+	 * the invoked method, like <tt>handle</tt>.
+	 */
+	public void recordAction(Class<?> action, String method, long wallNanos,
+			long cpuNanos) {
+		get(actions, action.getName() + "." + method).add(wallNanos, cpuNanos);
+	}
+
+	/**
+	 * Records a single call of {@link Nucleus.ClassLoadAction#handle(Class)}.
+	 */
+	public void recordHandleCall(Class<?> action, Class<?> clazz,
+			long wallNanos) {
+		synchronized (slowestHandleCalls) {
+			if (slowestHandleCalls.size() >= SLOWEST_HANDLE_CALLS
+					&& slowestHandleCalls.peek().getWallNanos() >= wallNanos) {
+				return;
+			}
+			Timing timing = new Timing(action.getName() + ".handle("
+					+ clazz.getName() + ")");
+			timing.add(wallNanos, 0);
+			slowestHandleCalls.add(timing);
+			if (slowestHandleCalls.size() > SLOWEST_HANDLE_CALLS) {
+				slowestHandleCalls.poll();
+			}
+		}
+	}
+
+	private PartTiming getPart(Class<?> part) {
+		synchronized (parts) {
+			PartTiming timing = parts.get(part.getName());
+			if (timing == null) {
+				timing = new PartTiming(part.getName());
+				parts.put(part.getName(), timing);
+			}
+			return timing;
+		}
+	}
+
+	/**
+	 * Records the time spent in the constructor of the given part.
+	 */
+	public void recordConstruction(Class<?> part, long nanos) {
+		PartTiming timing = getPart(part);
+		synchronized (timing) {
+			timing.constructionNanos += nanos;
+		}
+	}
+
+	/**
+	 * Records the time spent to inject the dependencies of the given part.
+	 */
+	public void recordInjection(Class<?> part, long nanos) {
+		PartTiming timing = getPart(part);
+		synchronized (timing) {
+			timing.injectionNanos += nanos;
+		}
+	}
+
+	private static <T> List<T> copy(Map<String, T> map) {
+		synchronized (map) {
+			return Collections.unmodifiableList(new ArrayList<T>(map.values()));
+		}
+	}
+
+	/**
+	 * Returns the time spent per component in the order of discovery.
+	 */
+	public List<Timing> getComponents() {
+		return copy(components);
+	}
+
+	/**
+	 * Returns the time spent per startup phase.
+	 */
+	public List<Timing> getPhases() {
+		return copy(phases);
+	}
+
+	/**
+	 * Returns the time spent per action and method.
+	 */
+	public List<Timing> getActions() {
+		return copy(actions);
+	}
+
+	/**
+	 * Returns the slowest calls of
+	 * {@link Nucleus.ClassLoadAction#handle(Class)}, slowest first.
+	 */
+	public List<Timing> getSlowestHandleCalls() {
+		List<Timing> result;
+		synchronized (slowestHandleCalls) {
+			result = new ArrayList<Timing>(slowestHandleCalls);
+		}
+		Collections.sort(result, Collections.reverseOrder(BY_WALL_TIME));
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Returns the construction and injection times of all registered parts.
+	 */
+	public List<PartTiming> getParts() {
+		return copy(parts);
+	}
+
+	/*
+	 * Emits all measurements as JFR events. This is skipped silently, if the
+	 * flight recorder is not running or the JVM does not provide JFR.
+	 */
+	void emitEvents() {
+		if (!isRecording()) {
+			return;
+		}
+		try {
+			StartupEvent.emit(this);
+		} catch (LinkageError e) {
+			Nucleus.LOG.log(Level.FINE, "JFR is not available", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		append(sb, "Phases", getPhases());
+		append(sb, "Components", getComponents());
+		append(sb, "Class load actions", getActions());
+		append(sb, "Slowest handle calls", getSlowestHandleCalls());
+		append(sb, "Parts", getParts());
+		return sb.toString();
+	}
+
+	private static void append(StringBuilder sb, String title, List<?> items) {
+		sb.append(title).append(":\n");
+		for (Object item : items) {
+			sb.append("  ").append(item).append("\n");
+		}
+	}
+}
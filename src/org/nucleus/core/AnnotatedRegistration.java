@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nucleus.core.InjectionPlan.Point;
+
+/**
+ * A {@link Registration} which is read from the {@link Register} annotation
+ * and the {@link InjectionPlan} of a class.
+ */
+class AnnotatedRegistration implements Registration {
+
+	private final Class<?> type;
+	private final Register register;
+	private final Class<?>[] dependencies;
+	private final String[] dependencyNames;
+	private final boolean[] dependencyLists;
+
+	AnnotatedRegistration(Class<?> type, Register register) {
+		this.type = type;
+		this.register = register;
+		InjectionPlan plan = InjectionPlan.of(type);
+		List<Point> points = new ArrayList<Point>();
+		for (Point point : plan.getPoints()) {
+			if (point.getHandle() == null) {
+				points.add(point);
+			}
+		}
+		for (Point point : plan.getParameters()) {
+			if (point.getHandle() == null) {
+				points.add(point);
+			}
+		}
+		this.dependencies = new Class<?>[points.size()];
+		this.dependencyNames = new String[points.size()];
+		this.dependencyLists = new boolean[points.size()];
+		for (int i = 0; i < points.size(); i++) {
+			dependencies[i] = points.get(i).getType();
+			dependencyNames[i] = points.get(i).getName();
+			dependencyLists[i] = points.get(i).isList();
+		}
+	}
+
+	@Override
+	public Class<?> getType() {
+		return type;
+	}
+
+	@Override
+	public Class<?>[] getClasses() {
+		return register.classes();
+	}
+
+	@Override
+	public String getName() {
+		return register.name();
+	}
+
+	@Override
+	public int getPriority() {
+		return register.priority();
+	}
+
+	@Override
+	public boolean isLazy() {
+		return register.lazy();
+	}
+
+	@Override
+	public Class<?>[] getDependencies() {
+		return dependencies;
+	}
+
+	@Override
+	public String[] getDependencyNames() {
+		return dependencyNames;
+	}
+
+	@Override
+	public boolean[] getDependencyLists() {
+		return dependencyLists;
+	}
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.core;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.nucleus.Nucleus;
+import org.nucleus.Nucleus.DeferredPart;
+import org.nucleus.Nucleus.Priority;
+
+/**
+ * Creates and injects an instance of a class wearing {@link Register} when it
+ * is looked up for the first time (or when the {@link ServiceLoadAction}
+ * creates all parts which are not lazy).
+ * <p>
+ * No lock is held while the instance is constructed or injected. Other
+ * threads wait until the instance is completely injected. The instance which
+ * is still being injected is only handed out to break a cycle: to the
+ * creating thread itself (if the part is injected into one of its own
+ * dependencies) or to a thread which is part of a cycle of threads waiting
+ * for each other's parts. If such a cycle consists of constructors only, it
+ * cannot be resolved and an {@link IllegalStateException} is thrown, like for
+ * a constructor cycle on a single thread.
+ * <p>
+ * If the instance cannot be created, the error is logged once and
+ * {@link #get()} returns <tt>null</tt> from then on, so that the part is
+ * skipped by all lookups. A thread which is interrupted while waiting for an
+ * instance gets an {@link IllegalStateException} (with its interrupt flag
+ * set), which doesn't mark any part as failed.
+ */
+public class DeferredInstance implements DeferredPart, Priority {
+
+	/*
+	 * Guards the state of all instances being created and the parts the
+	 * threads are waiting for. It is only held for bookkeeping, never while
+	 * an instance is constructed or injected.
+	 */
+	private static final Object LOCK = new Object();
+
+	/*
+	 * Contains the instance each thread is waiting for (guarded by LOCK).
+	 */
+	private static final Map<Thread, DeferredInstance> WAITING = new HashMap<Thread, DeferredInstance>();
+
+	private final Class<?> type;
+	private final Registration registration;
+	private volatile Object instance;
+	// The following fields are guarded by LOCK
+	private Object pending;
+	private Thread creator;
+	private boolean failed;
+
+	/**
+	 * Creates a new deferred instance of the given class.
+	 */
+	public DeferredInstance(Class<?> type) {
+		this.type = type;
+		this.registration = GeneratedCode.getRegistration(type);
+	}
+
+	/**
+	 * Creates a new deferred instance of the class described by the given
+	 * registration.
+	 */
+	public DeferredInstance(Registration registration) {
+		this.type = registration.getType();
+		this.registration = registration;
+	}
+
+	/**
+	 * Returns the registration of the class, or <tt>null</tt> if it doesn't
+	 * wear {@link Register}.
+	 */
+	public Registration getRegistration() {
+		return registration;
+	}
+
+	@Override
+	public Class<?> getType() {
+		return type;
+	}
+
+	@Override
+	public int getPriority() {
+		return registration != null ? registration.getPriority()
+				: Priority.DEFAULT;
+	}
+
+	/**
+	 * Returns the instance, creating it on the first invocation. Returns
+	 * <tt>null</tt> if the instance cannot be created.
+	 */
+	@Override
+	public Object get() {
+		Object result = instance;
+		if (result == null) {
+			result = create();
+		}
+		return result;
+	}
+
+	private Object create() {
+		Thread current = Thread.currentThread();
+		synchronized (LOCK) {
+			while (instance == null && !failed) {
+				if (creator == null) {
+					creator = current;
+					break;
+				}
+				if (creator == current || waitsFor(creator, current)) {
+					if (pending != null) {
+						return pending;
+					}
+					// The instance doesn't exist yet, if it is required by a
+					// parameter of its own constructor (directly or
+					// indirectly). On several threads, the cycle can only be
+					// resolved if another part in it is already constructed.
+					if (creator == current || !isResolvable(current)) {
+						throw new IllegalStateException(
+								"Cyclic constructor dependency of: "
+										+ type.getName());
+					}
+				}
+				WAITING.put(current, this);
+				// Threads which now complete a cycle have to re-check it
+				LOCK.notifyAll();
+				try {
+					LOCK.wait();
+				} catch (InterruptedException e) {
+					current.interrupt();
+					throw new IllegalStateException(
+							"Interrupted while waiting for: " + type.getName(),
+							e);
+				} finally {
+					WAITING.remove(current);
+				}
+			}
+			if (creator != current) {
+				return instance;
+			}
+		}
+		Object created = null;
+		Throwable failure = null;
+		try {
+			long start = System.nanoTime();
+			created = Factory.construct(type, null);
+			long constructed = System.nanoTime();
+			Nucleus.getStartupReport().recordConstruction(type,
+					constructed - start);
+			synchronized (LOCK) {
+				pending = created;
+				LOCK.notifyAll();
+			}
+			Factory.inject(created);
+			Nucleus.getStartupReport().recordInjection(type,
+					System.nanoTime() - constructed);
+		} catch (Throwable e) {
+			failure = e;
+		} finally {
+			synchronized (LOCK) {
+				if (failure == null) {
+					instance = created;
+				} else if (!current.isInterrupted()) {
+					failed = true;
+				}
+				pending = null;
+				creator = null;
+				LOCK.notifyAll();
+			}
+		}
+		if (failure != null && current.isInterrupted()) {
+			// Another lookup may still create the part
+			throw new IllegalStateException("Interrupted while creating: "
+					+ type.getName(), failure);
+		}
+		if (failure != null) {
+			Nucleus.LOG.log(Level.WARNING, "Cannot create part: "
+					+ type.getName() + ": " + failure.getMessage(), failure);
+		}
+		return instance;
+	}
+
+	/*
+	 * Determines if the given thread (transitively) waits for a part which
+	 * is created by the given other thread.
+	 */
+	private static boolean waitsFor(Thread thread, Thread other) {
+		// A chain of waiting threads contains each thread at most once,
+		// unless it ends in a cycle which doesn't contain other
+		for (int i = 0; i <= WAITING.size() && thread != null; i++) {
+			DeferredInstance part = WAITING.get(thread);
+			if (part == null) {
+				return false;
+			}
+			thread = part.creator;
+			if (thread == other) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Determines if one of the other parts in the cycle of waiting threads
+	 * starting at this one is already constructed, so that its thread can
+	 * continue using the pending instance.
+	 */
+	private boolean isResolvable(Thread current) {
+		Thread thread = creator;
+		while (thread != current) {
+			DeferredInstance part = WAITING.get(thread);
+			if (part.pending != null) {
+				return true;
+			}
+			thread = part.creator;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "deferred " + type.getName();
+	}
+}
@@ -21,87 +21,249 @@
  */
 package org.nucleus.core;
 
-import java.lang.reflect.Field;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 
 import org.nucleus.Nucleus;
+import org.nucleus.Registry;
+import org.nucleus.core.InjectionPlan.Point;
 
 /**
  * Used for processing dependency injection annotations like {@link Inject} and
  * {@link InjectList}.
+ * <p>
+ * The fields to inject are determined once per class (see
+ * {@link InjectionPlan}). If the {@link InjectorProcessor} generated an
+ * {@link Injector} for a class, it is used instead of reflection.
+ * <p>
+ * Injections are resolved against the global model of {@link Nucleus}, or
+ * against a given {@link Registry} (like a child registry created by
+ * {@link Nucleus#createScope()}).
+ * <p>
+ * Using {@link #get(Class)}, a factory also provides objects according to
+ * their {@link Scope}: singletons are kept by the factory, pooled objects are
+ * borrowed from an {@link ObjectPool} of the factory.
  */
 public class Factory {
 
+	private final Registry registry;
+	private final ConcurrentMap<Class<?>, Object> singletons = new ConcurrentHashMap<Class<?>, Object>();
+	private final ConcurrentMap<Class<?>, ObjectPool<?>> pools = new ConcurrentHashMap<Class<?>, ObjectPool<?>>();
+
+	/**
+	 * Creates a factory which resolves injections against the global model.
+	 */
+	public Factory() {
+		this(null);
+	}
+
+	/**
+	 * Creates a factory which resolves injections against the given registry.
+	 */
+	public Factory(Registry registry) {
+		this.registry = registry;
+	}
+
 	/**
 	 * Fills all required injections.
 	 */
 	public static Object inject(Object obj) {
-		if (obj != null) {
-			inject(obj, obj.getClass());
+		return inject(obj, (Registry) null);
+	}
+
+	/**
+	 * Fills all required injections using the given registry. If
+	 * <tt>null</tt> is given, the global model is used.
+	 */
+	public static Object inject(Object obj, Registry registry) {
+		if (obj == null) {
+			return null;
+		}
+		Injector injector = GeneratedCode.getInjector(obj.getClass());
+		if (injector != null) {
+			injector.inject(obj, registry);
+			return obj;
+		}
+		Point[] points = InjectionPlan.of(obj.getClass()).getPoints();
+		int i = 0;
+		// A failing field is reported and skipped, the remaining fields are
+		// still injected.
+		while (i < points.length) {
+			try {
+				for (; i < points.length; i++) {
+					Point point = points[i];
+					point.set(obj, resolve(point, registry));
+				}
+			} catch (Throwable e) {
+				injectionFailed(obj, points[i].field.getName(), e);
+				i++;
+			}
 		}
 		return obj;
 	}
 
-	private static void inject(Object obj, Class<?> clazz) {
-		if (Object.class.equals(clazz)) {
-			return;
+	/**
+	 * Reports that a field could not be injected. Used by generated
+	 * {@link Injector}s.
+	 */
+	public static void injectionFailed(Object obj, String field, Throwable e) {
+		Nucleus.LOG.log(Level.WARNING, obj.getClass() + "." + field + ": "
+				+ e.getMessage(), e);
+	}
+
+	private static Object resolve(Point point, Registry registry) {
+		return lookup(point.getType(), point.getName(), point.isList(),
+				point.getHandle(), registry);
+	}
+
+	/**
+	 * Determines the value of a field or parameter. Lazy handles (if a handle
+	 * type is given) are created without performing any lookup. Used by
+	 * generated {@link Injector}s.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static Object lookup(Class<?> type, String name, boolean list,
+			Class<?> handle, Registry registry) {
+		if (handle == Parts.class) {
+			return Parts.of(type, registry);
 		}
-		for (Field field : clazz.getDeclaredFields()) {
-			field.setAccessible(true);
-			if (field.isAnnotationPresent(Inject.class)) {
-				injectIntoField(field, obj);
-			}
-			if (field.isAnnotationPresent(InjectList.class)) {
-				injectListIntoField(field, obj);
-			}
+		if (handle != null) {
+			return new Part(type, name.isEmpty() ? null : name, registry);
 		}
-		inject(obj, clazz.getSuperclass());
+		if (list) {
+			return findParts(type, registry);
+		}
+		return findPart(type, name, registry);
 	}
 
-	private static void injectListIntoField(Field field, Object obj) {
-		if (List.class.isAssignableFrom(field.getType())) {
-			try {
-				field.set(obj, Nucleus.findParts(field.getAnnotation(
-						InjectList.class).value()));
-			} catch (Throwable e) {
-				Nucleus.LOG.log(
-						Level.WARNING,
-						obj.getClass() + "." + field.getName() + ": "
-								+ e.getMessage(), e);
-			}
-		} else {
-			Nucleus.LOG
-					.warning(obj.getClass()
-							+ "."
-							+ field.getName()
-							+ ": @InjectList required a java.util.List<E> as field type");
+	private static List<?> findParts(Class<?> type, Registry registry) {
+		return registry == null ? Nucleus.findParts(type) : registry
+				.findParts(type);
+	}
+
+	private static Object findPart(Class<?> type, String name,
+			Registry registry) {
+		if (registry == null) {
+			return name.isEmpty() ? Nucleus.findPart(type) : Nucleus.findPart(
+					type, name);
 		}
+		return name.isEmpty() ? registry.findPart(type) : registry.findPart(
+				type, name);
 	}
 
-	private static void injectIntoField(Field field, Object obj) {
+	/**
+	 * Creates a new instance of the given class, using the constructor wearing
+	 * {@link Inject} or the no-args constructor. Fields are not injected.
+	 */
+	static Object construct(Class<?> type, Registry registry) throws Exception {
+		Injector injector = GeneratedCode.getInjector(type);
+		if (injector != null) {
+			Object result = injector.create(registry);
+			if (result != null) {
+				return result;
+			}
+		}
+		InjectionPlan plan = InjectionPlan.of(type);
+		if (!plan.isInstantiable()) {
+			throw new IllegalArgumentException("No suitable constructor: "
+					+ type.getName());
+		}
+		Point[] parameters = plan.getParameters();
+		Object[] args = new Object[parameters.length];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = resolve(parameters[i], registry);
+		}
 		try {
-			field.set(obj, Nucleus.findPart(field.getType()));
+			return plan.newInstance(args);
+		} catch (Exception e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
 		} catch (Throwable e) {
-			Nucleus.LOG.log(
-					Level.WARNING,
-					obj.getClass() + "." + field.getName() + ": "
-							+ e.getMessage(), e);
+			throw new UndeclaredThrowableException(e);
 		}
 	}
 
 	/**
 	 * Creates a new instance of the given class. This should be used for
 	 * classes which are NOT registered in {@link Nucleus} but which also wear
-	 * {@link Inject} annotations.
+	 * {@link Inject} annotations. If a constructor wears {@link Inject}, it is
+	 * used and its parameters are looked up, otherwise the no-args constructor
+	 * is used.
 	 */
 	@SuppressWarnings("unchecked")
 	public <I> I create(Class<I> type) {
 		try {
-			return (I) inject(type.newInstance());
+			return (I) inject(construct(type, registry), registry);
 		} catch (Throwable e) {
 			throw new IllegalArgumentException(e);
 		}
 	}
 
+	/**
+	 * Provides an instance of the given class according to its {@link Scoped}
+	 * annotation. Classes without this annotation are created like by
+	 * {@link #create(Class)}. Objects of {@link Scope#POOLED} classes should
+	 * be given back using {@link #release(Object)}.
+	 */
+	@SuppressWarnings("unchecked")
+	public <I> I get(Class<I> type) {
+		Scoped scoped = type.getAnnotation(Scoped.class);
+		Scope scope = scoped == null ? Scope.PROTOTYPE : scoped.value();
+		if (scope == Scope.POOLED) {
+			return getPool(type).borrow();
+		}
+		if (scope == Scope.SINGLETON) {
+			Object result = singletons.get(type);
+			if (result == null) {
+				synchronized (singletons) {
+					result = singletons.get(type);
+					if (result == null) {
+						result = create(type);
+						singletons.put(type, result);
+					}
+				}
+			}
+			return (I) result;
+		}
+		return create(type);
+	}
+
+	/**
+	 * Gives an object obtained by {@link #get(Class)} back to its pool. Objects
+	 * which are not pooled are ignored.
+	 */
+	@SuppressWarnings("unchecked")
+	public <I> void release(I object) {
+		if (object != null) {
+			ObjectPool<I> pool = (ObjectPool<I>) pools.get(object.getClass());
+			if (pool != null) {
+				pool.release(object);
+			}
+		}
+	}
+
+	/**
+	 * Returns the pool (and its statistics) used for the given class, which
+	 * must be {@link Scope#POOLED}.
+	 */
+	@SuppressWarnings("unchecked")
+	public <I> ObjectPool<I> getPool(Class<I> type) {
+		ObjectPool<I> pool = (ObjectPool<I>) pools.get(type);
+		if (pool == null) {
+			Scoped scoped = type.getAnnotation(Scoped.class);
+			if (scoped == null || scoped.value() != Scope.POOLED) {
+				throw new IllegalArgumentException("Not a pooled class: "
+						+ type.getName());
+			}
+			pools.putIfAbsent(type, new ObjectPool<I>(type, this, scoped
+					.poolSize()));
+			pool = (ObjectPool<I>) pools.get(type);
+		}
+		return pool;
+	}
+
 }
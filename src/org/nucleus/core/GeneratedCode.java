@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+
+import org.nucleus.Nucleus;
+
+/**
+ * Finds the classes generated by the {@link InjectorProcessor}. Each class is
+ * looked up once, the result is kept in a {@link ClassValue}.
+ * <p>
+ * Only classes listed in <tt>META-INF/nucleus/generated</tt> (which is read
+ * once per class loader) are loaded, so that classes without generated code
+ * don't cause a failing lookup on the classpath. A generated class which
+ * cannot be loaded or instantiated (e.g. as it is outdated) is ignored and
+ * reflection is used instead.
+ */
+class GeneratedCode {
+
+	/**
+	 * Location of the list of generated classes, relative to the root of a
+	 * component.
+	 */
+	static final String LOCATION = "META-INF/nucleus/generated";
+
+	/**
+	 * The suffix appended to the binary name of a class to obtain its
+	 * {@link Injector}.
+	 */
+	static final String INJECTOR_SUFFIX = "$$Injector";
+
+	/**
+	 * The suffix appended to the binary name of a class to obtain its
+	 * {@link Registration}.
+	 */
+	static final String REGISTRATION_SUFFIX = "$$Registration";
+
+	private static final Object NONE = new Object();
+
+	private static final Map<ClassLoader, Set<String>> GENERATED = Collections
+			.synchronizedMap(new WeakHashMap<ClassLoader, Set<String>>());
+
+	private static final ClassValue<Object> INJECTORS = new ClassValue<Object>() {
+		@Override
+		protected Object computeValue(Class<?> type) {
+			Object result = load(type, INJECTOR_SUFFIX);
+			return result instanceof Injector ? result : NONE;
+		}
+	};
+
+	private static final ClassValue<Object> REGISTRATIONS = new ClassValue<Object>() {
+		@Override
+		protected Object computeValue(Class<?> type) {
+			Object result = load(type, REGISTRATION_SUFFIX);
+			if (result instanceof Registration) {
+				return result;
+			}
+			Register register = type.getAnnotation(Register.class);
+			return register != null ? new AnnotatedRegistration(type,
+					register) : NONE;
+		}
+	};
+
+	private GeneratedCode() {
+	}
+
+	private static Object load(Class<?> type, String suffix) {
+		String name = type.getName() + suffix;
+		if (!getGeneratedClasses(type.getClassLoader()).contains(name)) {
+			return null;
+		}
+		try {
+			return Class.forName(name, true, type.getClassLoader())
+					.getDeclaredConstructor().newInstance();
+		} catch (ClassNotFoundException e) {
+			return null;
+		} catch (ReflectiveOperationException e) {
+			ignore(name, e);
+		} catch (LinkageError e) {
+			ignore(name, e);
+		}
+		return null;
+	}
+
+	private static void ignore(String name, Throwable e) {
+		Nucleus.LOG.log(Level.WARNING, "Ignoring generated class: " + name
+				+ ": " + e, e);
+	}
+
+	private static Set<String> getGeneratedClasses(ClassLoader loader) {
+		if (loader == null) {
+			return Collections.emptySet();
+		}
+		Set<String> result = GENERATED.get(loader);
+		if (result == null) {
+			result = readGeneratedClasses(loader);
+			GENERATED.put(loader, result);
+		}
+		return result;
+	}
+
+	private static Set<String> readGeneratedClasses(ClassLoader loader) {
+		Set<String> result = new HashSet<String>();
+		try {
+			Enumeration<URL> urls = loader.getResources(LOCATION);
+			while (urls.hasMoreElements()) {
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(urls.nextElement().openStream(),
+								"UTF-8"));
+				try {
+					String line = reader.readLine();
+					while (line != null) {
+						result.add(line.trim());
+						line = reader.readLine();
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		} catch (IOException e) {
+			Nucleus.LOG.warning("Failed to read " + LOCATION + ": "
+					+ e.getMessage());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the generated injector of the given class, or <tt>null</tt>.
+	 */
+	static Injector getInjector(Class<?> type) {
+		Object result = INJECTORS.get(type);
+		return result != NONE ? (Injector) result : null;
+	}
+
+	/**
+	 * Returns the generated registration of the given class, or a
+	 * registration based on its annotations. Returns <tt>null</tt> if the
+	 * class doesn't wear {@link Register}.
+	 */
+	static Registration getRegistration(Class<?> type) {
+		Object result = REGISTRATIONS.get(type);
+		return result != NONE ? (Registration) result : null;
+	}
+}
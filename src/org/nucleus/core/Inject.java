@@ -31,9 +31,18 @@ import org.nucleus.Nucleus;
 /**
  * Marks a field a injection. The {@link Factory} will take the type of the
  * field and retrieve the appropriate object from {@link Nucleus}.
+ * <p>
+ * If placed on a constructor, the {@link Factory} uses it to create instances
+ * and looks up its parameters the same way. Parameters can also wear this
+ * annotation to specify a name, or {@link InjectList}.
  */
 @Retention(RetentionPolicy.RUNTIME)
-@Target(value = ElementType.FIELD)
+@Target(value = { ElementType.FIELD, ElementType.CONSTRUCTOR,
+		ElementType.PARAMETER })
 public @interface Inject {
 
+	/**
+	 * If given, the object registered with this name is injected.
+	 */
+	String name() default "";
 }
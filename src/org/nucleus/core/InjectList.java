@@ -31,9 +31,11 @@ import org.nucleus.Nucleus;
 /**
  * Marks a list-field a injection. The {@link Factory} will take the type of the
  * field and retrieve the list of appropriate objects from {@link Nucleus}.
+ * The injected list is read-only and shared with all other lookups of the
+ * same type (see {@link Nucleus#findParts(Class)}).
  */
 @Retention(RetentionPolicy.RUNTIME)
-@Target(value = ElementType.FIELD)
+@Target(value = { ElementType.FIELD, ElementType.PARAMETER })
 public @interface InjectList {
 	/**
 	 * Since the generic parameter of the list is rectified, we need this
@@ -0,0 +1,295 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.core;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.nucleus.Nucleus;
+
+/**
+ * Lists the fields of a class (including the ones of its superclasses) which
+ * are filled by the {@link Factory}. The plan of each class is computed once,
+ * so that injecting an object doesn't require any reflective lookups.
+ * <p>
+ * Each field is made accessible once and written using
+ * {@link Field#set(Object, Object)}. Plans are only used for classes without a
+ * generated {@link Injector}, which writes the fields directly instead.
+ * <p>
+ * The plan also contains the constructor used to create instances: either the
+ * constructor wearing {@link Inject} (whose parameters are looked up like
+ * fields) or the no-args constructor. Like the fields, it is only made
+ * accessible once and invoked reflectively, so that computing a plan (which
+ * happens for every registered class, even if it is never constructed) stays
+ * cheap.
+ * <p>
+ * Fields or parameters of type {@link Part}, {@link Parts} or
+ * {@link Supplier} are lazy: they receive a handle which looks up the type
+ * given as type argument once it is used.
+ */
+class InjectionPlan {
+
+	/**
+	 * A field wearing {@link Inject} or {@link InjectList}, or a parameter of
+	 * the injected constructor (which has no field).
+	 */
+	static class Point {
+
+		final Field field;
+		final boolean list;
+		final Class<?> type;
+		final String name;
+		final Class<?> handle;
+
+		Point(Field field, boolean list, Class<?> type, String name,
+				Class<?> handle) {
+			this.field = field;
+			this.list = list;
+			this.type = type;
+			this.name = name;
+			this.handle = handle;
+		}
+
+		/**
+		 * Stores the given value in the field of the given object.
+		 */
+		void set(Object obj, Object value) throws IllegalAccessException {
+			field.set(obj, value);
+		}
+
+		/**
+		 * Returns the class which is looked up: the type of the field or the
+		 * value of {@link InjectList}.
+		 */
+		Class<?> getType() {
+			return type;
+		}
+
+		/**
+		 * Returns the name given by {@link Inject}, or an empty string.
+		 */
+		String getName() {
+			return name;
+		}
+
+		/**
+		 * Determines if all parts of the type are injected.
+		 */
+		boolean isList() {
+			return list;
+		}
+
+		/**
+		 * Returns the type of the lazy handle to inject ({@link Part},
+		 * {@link Parts} or {@link Supplier}), or <tt>null</tt> if the part
+		 * itself is injected.
+		 */
+		Class<?> getHandle() {
+			return handle;
+		}
+	}
+
+	private static final ClassValue<InjectionPlan> PLANS = new ClassValue<InjectionPlan>() {
+		@Override
+		protected InjectionPlan computeValue(Class<?> type) {
+			return new InjectionPlan(type);
+		}
+	};
+
+	private final Point[] points;
+	private final Point[] parameters;
+	private final Constructor<?> constructor;
+
+	private InjectionPlan(Class<?> type) {
+		List<Point> result = new ArrayList<Point>();
+		Class<?> clazz = type;
+		while (clazz != null && !Object.class.equals(clazz)) {
+			for (Field field : clazz.getDeclaredFields()) {
+				if (field.isAnnotationPresent(Inject.class)) {
+					Point point = createPoint(field, field.getType(), field
+							.getGenericType(), field.getAnnotation(
+							Inject.class).name(), field);
+					if (point != null) {
+						result.add(point);
+					}
+				}
+				if (field.isAnnotationPresent(InjectList.class)) {
+					if (List.class.isAssignableFrom(field.getType())) {
+						field.setAccessible(true);
+						result.add(new Point(field, true, field.getAnnotation(
+								InjectList.class).value(), "", null));
+					} else {
+						Nucleus.LOG
+								.warning(type
+										+ "."
+										+ field.getName()
+										+ ": @InjectList required a java.util.List<E> as field type");
+					}
+				}
+			}
+			clazz = clazz.getSuperclass();
+		}
+		this.points = result.toArray(new Point[result.size()]);
+		Constructor<?> ctor = findConstructor(type);
+		this.parameters = ctor != null ? getParameters(ctor) : new Point[0];
+		if (ctor != null) {
+			ctor.setAccessible(true);
+		}
+		this.constructor = ctor;
+	}
+
+	private static Constructor<?> findConstructor(Class<?> type) {
+		Constructor<?> result = null;
+		for (Constructor<?> ctor : type.getDeclaredConstructors()) {
+			if (ctor.isAnnotationPresent(Inject.class)) {
+				if (result != null) {
+					Nucleus.LOG.warning(type
+							+ ": Only one constructor may wear @Inject - using: "
+							+ result);
+					break;
+				}
+				result = ctor;
+			}
+		}
+		if (result == null && !type.isInterface()
+				&& !Modifier.isAbstract(type.getModifiers())) {
+			try {
+				result = type.getDeclaredConstructor();
+			} catch (NoSuchMethodException e) {
+				return null;
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Creates the point for a field or parameter wearing Inject. Returns null
+	 * (after logging a warning which names the given field or constructor)
+	 * for lazy handles without a usable type argument.
+	 */
+	private static Point createPoint(Field field, Class<?> type,
+			Type genericType, String name, Member location) {
+		if (field != null) {
+			field.setAccessible(true);
+		}
+		if (!Part.class.equals(type) && !Parts.class.equals(type)
+				&& !Supplier.class.equals(type)) {
+			return new Point(field, false, type, name, null);
+		}
+		if (genericType instanceof ParameterizedType) {
+			Type argument = ((ParameterizedType) genericType)
+					.getActualTypeArguments()[0];
+			if (argument instanceof ParameterizedType) {
+				argument = ((ParameterizedType) argument).getRawType();
+			}
+			if (argument instanceof Class) {
+				return new Point(field, false, (Class<?>) argument, name, type);
+			}
+		}
+		Nucleus.LOG.warning(location + ": @Inject requires a concrete type for "
+				+ type.getSimpleName() + "<T>");
+		return null;
+	}
+
+	private static Point[] getParameters(Constructor<?> ctor) {
+		Class<?>[] types = ctor.getParameterTypes();
+		Type[] genericTypes = ctor.getGenericParameterTypes();
+		if (genericTypes.length != types.length) {
+			// Synthetic parameters are not reported as generic types
+			genericTypes = types;
+		}
+		Annotation[][] annotations = ctor.getParameterAnnotations();
+		Point[] result = new Point[types.length];
+		for (int i = 0; i < types.length; i++) {
+			String name = "";
+			Class<?> list = null;
+			for (Annotation annotation : annotations[i]) {
+				if (annotation instanceof Inject) {
+					name = ((Inject) annotation).name();
+				} else if (annotation instanceof InjectList) {
+					list = ((InjectList) annotation).value();
+				}
+			}
+			if (list != null) {
+				result[i] = new Point(null, true, list, "", null);
+			} else {
+				result[i] = createPoint(null, types[i], genericTypes[i], name,
+						ctor);
+				if (result[i] == null) {
+					// Without a type argument, the parameter type is looked up
+					result[i] = new Point(null, false, types[i], name, null);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the plan for the given class.
+	 */
+	static InjectionPlan of(Class<?> type) {
+		return PLANS.get(type);
+	}
+
+	/**
+	 * Returns all fields to inject, starting with the ones declared by the
+	 * class itself.
+	 */
+	Point[] getPoints() {
+		return points;
+	}
+
+	/**
+	 * Returns the parameters of the constructor.
+	 */
+	Point[] getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * Creates a new instance using the given constructor arguments. Errors
+	 * thrown by the constructor itself are rethrown unwrapped.
+	 */
+	Object newInstance(Object[] args) throws Throwable {
+		try {
+			return constructor.newInstance(args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Determines if the class provides a constructor which can be used.
+	 */
+	boolean isInstantiable() {
+		return constructor != null;
+	}
+}
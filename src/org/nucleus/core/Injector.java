@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.core;
+
+import org.nucleus.Registry;
+
+/**
+ * Creates and injects objects of a class without using reflection.
+ * <p>
+ * Implementations are generated by the {@link InjectorProcessor} as
+ * <tt>[class name]$$Injector</tt>. If present, the {@link Factory} uses them
+ * instead of reflection.
+ */
+public interface Injector {
+
+	/**
+	 * Creates a new instance using the injected constructor (or the no-args
+	 * constructor). Returns <tt>null</tt> if the class cannot be created by
+	 * this injector.
+	 */
+	Object create(Registry registry) throws Exception;
+
+	/**
+	 * Fills all fields wearing {@link Inject} or {@link InjectList}.
+	 */
+	void inject(Object obj, Registry registry);
+
+}
@@ -0,0 +1,524 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.core;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+import org.nucleus.scan.ClassNameList;
+
+/**
+ * Annotation processor which generates an {@link Injector} for each class
+ * using {@link Inject} or {@link InjectList}, and a {@link Registration} for
+ * each class wearing {@link Register}. The generated classes are used at
+ * runtime instead of reflection.
+ * <p>
+ * Code is only generated if all involved fields, constructors and types are
+ * accessible from the package of the class. Otherwise (e.g. for private
+ * fields) the class is handled by reflection, as before.
+ * <p>
+ * All generated classes are listed in <tt>META-INF/nucleus/generated</tt>, so
+ * that classes without generated code don't have to be probed at runtime.
+ * Like the component index, this list is merged with the one of a previous
+ * compilation into the same output directory (see {@link ClassNameList}).
+ * <p>
+ * The processor is picked up automatically by javac, as long as the nucleus
+ * jar is on the compile classpath. As it only claims interest in
+ * {@link Inject}, {@link InjectList} and {@link Register}, javac skips it for
+ * compilations which use none of them.
+ */
+@SupportedAnnotationTypes({ "org.nucleus.core.Inject",
+		"org.nucleus.core.InjectList", "org.nucleus.core.Register" })
+public class InjectorProcessor extends AbstractProcessor {
+
+	private static final String INJECT = "org.nucleus.core.Inject";
+	private static final String INJECT_LIST = "org.nucleus.core.InjectList";
+	private static final String REGISTER = "org.nucleus.core.Register";
+	private static final String PART = "org.nucleus.core.Part";
+	private static final String PARTS = "org.nucleus.core.Parts";
+	private static final String SUPPLIER = "java.util.function.Supplier";
+	private static final String FACTORY = "org.nucleus.core.Factory";
+
+	/*
+	 * A field or constructor parameter to inject. The type names are null if
+	 * they cannot be referenced from the generated code.
+	 */
+	private static class Point {
+		VariableElement element;
+		TypeElement declaringType;
+		String type;
+		String name = "";
+		boolean list;
+		String handle;
+		String cast;
+		boolean dependency = true;
+	}
+
+	private ClassNameList generated;
+
+	@Override
+	public synchronized void init(ProcessingEnvironment processingEnv) {
+		super.init(processingEnv);
+		generated = new ClassNameList(processingEnv, GeneratedCode.LOCATION,
+				null);
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+			RoundEnvironment roundEnv) {
+		if (roundEnv.processingOver()) {
+			generated.write();
+			return false;
+		}
+		for (Element element : roundEnv.getRootElements()) {
+			collect(element);
+		}
+		return false;
+	}
+
+	private void collect(Element element) {
+		if (element.getKind().isClass() || element.getKind().isInterface()) {
+			generated.addCompiled((TypeElement) element);
+		}
+		if (element.getKind() == ElementKind.CLASS) {
+			generate((TypeElement) element);
+		}
+		if (element.getKind().isClass() || element.getKind().isInterface()) {
+			for (Element child : element.getEnclosedElements()) {
+				collect(child);
+			}
+		}
+	}
+
+	private void generate(TypeElement type) {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(
+				type);
+		List<Point> fields = getFields(type);
+		ExecutableElement constructor = findConstructor(type);
+		List<Point> parameters = new ArrayList<Point>();
+		if (constructor != null) {
+			for (VariableElement parameter : constructor.getParameters()) {
+				parameters.add(createPoint(parameter, null, pkg));
+			}
+		}
+		boolean injected = constructor != null
+				&& getAnnotation(constructor, INJECT) != null;
+		AnnotationMirror register = getAnnotation(type, REGISTER);
+		if (!isAccessible(type, pkg)) {
+			return;
+		}
+		if ((!fields.isEmpty() || injected || register != null)
+				&& canInject(fields, pkg)) {
+			writeInjector(type, pkg, fields, canCreate(type, constructor,
+					parameters, pkg) ? parameters : null);
+		}
+		if (register != null) {
+			List<Point> dependencies = new ArrayList<Point>();
+			for (Point point : fields) {
+				if (point.dependency) {
+					dependencies.add(point);
+				}
+			}
+			for (Point point : parameters) {
+				if (point.dependency) {
+					dependencies.add(point);
+				}
+			}
+			writeRegistration(type, pkg, register, dependencies);
+		}
+	}
+
+	/*
+	 * Collects the injected fields of the class and all its superclasses, in
+	 * the same order as the InjectionPlan.
+	 */
+	private List<Point> getFields(TypeElement type) {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(
+				type);
+		List<Point> result = new ArrayList<Point>();
+		TypeElement current = type;
+		while (current != null
+				&& !current.getQualifiedName().contentEquals("java.lang.Object")) {
+			for (Element element : current.getEnclosedElements()) {
+				if (element.getKind() == ElementKind.FIELD
+						&& (getAnnotation(element, INJECT) != null || getAnnotation(
+								element, INJECT_LIST) != null)) {
+					Point point = createPoint((VariableElement) element,
+							current, pkg);
+					if (point != null) {
+						result.add(point);
+					}
+				}
+			}
+			TypeMirror superclass = current.getSuperclass();
+			current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass)
+					.asElement() : null;
+		}
+		return result;
+	}
+
+	/*
+	 * Creates the point for a field (which has a declaring type) or a
+	 * constructor parameter. Returns null for fields which are skipped at
+	 * runtime.
+	 */
+	private Point createPoint(VariableElement element,
+			TypeElement declaringType, PackageElement pkg) {
+		Point point = new Point();
+		point.element = element;
+		point.declaringType = declaringType;
+		TypeMirror type = processingEnv.getTypeUtils().erasure(
+				element.asType());
+		point.cast = getTypeName(type, pkg);
+		AnnotationMirror injectList = getAnnotation(element, INJECT_LIST);
+		if (injectList != null) {
+			point.list = true;
+			point.type = getTypeName((TypeMirror) getValue(injectList,
+					"value"), pkg);
+			if (declaringType != null && !isList(type)) {
+				// Reported and skipped at runtime
+				return null;
+			}
+			return point;
+		}
+		AnnotationMirror inject = getAnnotation(element, INJECT);
+		if (inject != null) {
+			point.name = (String) getValue(inject, "name");
+		}
+		String raw = type.getKind() == TypeKind.DECLARED ? ((TypeElement) ((DeclaredType) type)
+				.asElement()).getQualifiedName().toString() : null;
+		if (PART.equals(raw) || PARTS.equals(raw) || SUPPLIER.equals(raw)) {
+			List<? extends TypeMirror> arguments = ((DeclaredType) element
+					.asType()).getTypeArguments();
+			if (!arguments.isEmpty()
+					&& arguments.get(0).getKind() == TypeKind.DECLARED) {
+				point.handle = raw;
+				point.dependency = false;
+				point.type = getTypeName(processingEnv.getTypeUtils()
+						.erasure(arguments.get(0)), pkg);
+				return point;
+			}
+			if (declaringType != null) {
+				// Reported and skipped at runtime
+				return null;
+			}
+		}
+		point.type = point.cast;
+		return point;
+	}
+
+	private boolean isList(TypeMirror type) {
+		TypeElement list = processingEnv.getElementUtils().getTypeElement(
+				"java.util.List");
+		return processingEnv.getTypeUtils().isAssignable(type,
+				processingEnv.getTypeUtils().erasure(list.asType()));
+	}
+
+	/*
+	 * Selects the constructor like the InjectionPlan does.
+	 */
+	private ExecutableElement findConstructor(TypeElement type) {
+		ExecutableElement defaultConstructor = null;
+		for (Element element : type.getEnclosedElements()) {
+			if (element.getKind() == ElementKind.CONSTRUCTOR) {
+				ExecutableElement constructor = (ExecutableElement) element;
+				if (getAnnotation(constructor, INJECT) != null) {
+					return constructor;
+				}
+				if (constructor.getParameters().isEmpty()) {
+					defaultConstructor = constructor;
+				}
+			}
+		}
+		if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+			return null;
+		}
+		return defaultConstructor;
+	}
+
+	private boolean canInject(List<Point> fields, PackageElement pkg) {
+		for (Point point : fields) {
+			Set<Modifier> modifiers = point.element.getModifiers();
+			if (point.type == null || point.cast == null
+					|| modifiers.contains(Modifier.PRIVATE)
+					|| modifiers.contains(Modifier.FINAL)
+					|| !isAccessible(point.declaringType, pkg)
+					|| (!modifiers.contains(Modifier.PUBLIC) && !pkg
+							.equals(processingEnv.getElementUtils()
+									.getPackageOf(point.declaringType)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean canCreate(TypeElement type, ExecutableElement constructor,
+			List<Point> parameters, PackageElement pkg) {
+		if (constructor == null
+				|| constructor.getModifiers().contains(Modifier.PRIVATE)
+				|| (type.getNestingKind() != NestingKind.TOP_LEVEL && !type
+						.getModifiers().contains(Modifier.STATIC))) {
+			return false;
+		}
+		TypeMirror exception = processingEnv.getElementUtils()
+				.getTypeElement("java.lang.Exception").asType();
+		TypeMirror error = processingEnv.getElementUtils()
+				.getTypeElement("java.lang.Error").asType();
+		for (TypeMirror thrown : constructor.getThrownTypes()) {
+			if (!processingEnv.getTypeUtils().isAssignable(thrown, exception)
+					&& !processingEnv.getTypeUtils().isAssignable(thrown, error)) {
+				return false;
+			}
+		}
+		for (Point point : parameters) {
+			if (point.type == null || point.cast == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Returns the canonical name of the given type, if it can be referenced
+	 * from the given package, otherwise null.
+	 */
+	private String getTypeName(TypeMirror type, PackageElement pkg) {
+		if (type.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+		return isAccessible(element, pkg) ? element.getQualifiedName()
+				.toString() : null;
+	}
+
+	private boolean isAccessible(TypeElement type, PackageElement pkg) {
+		Element current = type;
+		while (current instanceof TypeElement) {
+			TypeElement element = (TypeElement) current;
+			if (element.getNestingKind() == NestingKind.LOCAL
+					|| element.getNestingKind() == NestingKind.ANONYMOUS
+					|| element.getModifiers().contains(Modifier.PRIVATE)) {
+				return false;
+			}
+			if (!element.getModifiers().contains(Modifier.PUBLIC)
+					&& !pkg.equals(processingEnv.getElementUtils()
+							.getPackageOf(element))) {
+				return false;
+			}
+			current = element.getEnclosingElement();
+		}
+		return true;
+	}
+
+	private AnnotationMirror getAnnotation(Element element, String name) {
+		for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+			if (((TypeElement) annotation.getAnnotationType().asElement())
+					.getQualifiedName().contentEquals(name)) {
+				return annotation;
+			}
+		}
+		return null;
+	}
+
+	private Object getValue(AnnotationMirror annotation, String name) {
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : processingEnv
+				.getElementUtils().getElementValuesWithDefaults(annotation)
+				.entrySet()) {
+			if (entry.getKey().getSimpleName().contentEquals(name)) {
+				return entry.getValue().getValue();
+			}
+		}
+		return null;
+	}
+
+	private String getLookup(Point point) {
+		return FACTORY
+				+ ".lookup("
+				+ point.type
+				+ ".class, "
+				+ processingEnv.getElementUtils().getConstantExpression(
+						point.name) + ", " + point.list + ", "
+				+ (point.handle == null ? "null" : point.handle + ".class")
+				+ ", registry)";
+	}
+
+	private void writeInjector(TypeElement type, PackageElement pkg,
+			List<Point> fields, List<Point> parameters) {
+		String name = type.getQualifiedName().toString();
+		StringBuilder sb = new StringBuilder();
+		sb.append("\t@Override\n");
+		sb.append("\tpublic Object create(org.nucleus.Registry registry) throws Exception {\n");
+		if (parameters == null) {
+			sb.append("\t\treturn null;\n");
+		} else {
+			sb.append("\t\treturn new ").append(name).append("(");
+			for (int i = 0; i < parameters.size(); i++) {
+				Point point = parameters.get(i);
+				sb.append(i == 0 ? "\n\t\t\t\t(" : ",\n\t\t\t\t(");
+				sb.append(point.cast).append(") ").append(getLookup(point));
+			}
+			sb.append(");\n");
+		}
+		sb.append("\t}\n\n");
+		sb.append("\t@Override\n");
+		sb.append("\tpublic void inject(Object obj, org.nucleus.Registry registry) {\n");
+		for (Point point : fields) {
+			String target = point.element.getModifiers().contains(
+					Modifier.STATIC) ? point.declaringType.getQualifiedName()
+					.toString() : "((" + point.declaringType.getQualifiedName()
+					+ ") obj)";
+			sb.append("\t\ttry {\n");
+			sb.append("\t\t\t").append(target).append(".")
+					.append(point.element.getSimpleName()).append(" = (")
+					.append(point.cast).append(") ").append(getLookup(point))
+					.append(";\n");
+			sb.append("\t\t} catch (Throwable e) {\n");
+			sb.append("\t\t\t").append(FACTORY).append(".injectionFailed(obj, \"")
+					.append(point.element.getSimpleName())
+					.append("\", e);\n");
+			sb.append("\t\t}\n");
+		}
+		sb.append("\t}\n");
+		write(type, pkg, GeneratedCode.INJECTOR_SUFFIX, "org.nucleus.core.Injector",
+				sb.toString());
+	}
+
+	private void writeRegistration(TypeElement type, PackageElement pkg,
+			AnnotationMirror register, List<Point> dependencies) {
+		StringBuilder classes = new StringBuilder();
+		for (Object value : (List<?>) getValue(register, "classes")) {
+			String marker = getTypeName((TypeMirror) ((AnnotationValue) value)
+					.getValue(), pkg);
+			if (marker == null) {
+				return;
+			}
+			classes.append(classes.length() == 0 ? "" : ", ").append(marker)
+					.append(".class");
+		}
+		StringBuilder types = new StringBuilder();
+		StringBuilder names = new StringBuilder();
+		StringBuilder lists = new StringBuilder();
+		for (Point point : dependencies) {
+			if (point.type == null) {
+				return;
+			}
+			types.append(types.length() == 0 ? "" : ", ").append(point.type)
+					.append(".class");
+			names.append(names.length() == 0 ? "" : ", ").append(
+					processingEnv.getElementUtils().getConstantExpression(
+							point.name));
+			lists.append(lists.length() == 0 ? "" : ", ").append(point.list);
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("\tprivate static final Class<?>[] CLASSES = { ")
+				.append(classes).append(" };\n");
+		sb.append("\tprivate static final Class<?>[] DEPENDENCIES = { ")
+				.append(types).append(" };\n");
+		sb.append("\tprivate static final String[] DEPENDENCY_NAMES = { ")
+				.append(names).append(" };\n");
+		sb.append("\tprivate static final boolean[] DEPENDENCY_LISTS = { ")
+				.append(lists).append(" };\n");
+		appendGetter(sb, "Class<?>", "getType", type.getQualifiedName()
+				+ ".class");
+		appendGetter(sb, "Class<?>[]", "getClasses", "CLASSES");
+		appendGetter(sb, "String", "getName", processingEnv.getElementUtils()
+				.getConstantExpression(getValue(register, "name")));
+		appendGetter(sb, "int", "getPriority", String.valueOf(getValue(
+				register, "priority")));
+		appendGetter(sb, "boolean", "isLazy", String.valueOf(getValue(
+				register, "lazy")));
+		appendGetter(sb, "Class<?>[]", "getDependencies", "DEPENDENCIES");
+		appendGetter(sb, "String[]", "getDependencyNames", "DEPENDENCY_NAMES");
+		appendGetter(sb, "boolean[]", "getDependencyLists", "DEPENDENCY_LISTS");
+		write(type, pkg, GeneratedCode.REGISTRATION_SUFFIX,
+				"org.nucleus.core.Registration", sb.toString());
+	}
+
+	private void appendGetter(StringBuilder sb, String type, String method,
+			String value) {
+		sb.append("\n\t@Override\n");
+		sb.append("\tpublic ").append(type).append(" ").append(method)
+				.append("() {\n");
+		sb.append("\t\treturn ").append(value).append(";\n");
+		sb.append("\t}\n");
+	}
+
+	private void write(TypeElement type, PackageElement pkg, String suffix,
+			String iface, String body) {
+		String binaryName = processingEnv.getElementUtils()
+				.getBinaryName(type).toString();
+		String simpleName = (pkg.isUnnamed() ? binaryName : binaryName
+				.substring(pkg.getQualifiedName().length() + 1)) + suffix;
+		try {
+			Writer writer = processingEnv.getFiler()
+					.createSourceFile(binaryName + suffix, type).openWriter();
+			try {
+				if (!pkg.isUnnamed()) {
+					writer.write("package " + pkg.getQualifiedName() + ";\n\n");
+				}
+				writer.write("/**\n * Generated by the Nucleus InjectorProcessor.\n */\n");
+				writer.write("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+				writer.write("public final class " + simpleName
+						+ " implements " + iface + " {\n\n");
+				writer.write(body);
+				writer.write("}\n");
+			} finally {
+				writer.close();
+			}
+			generated.add(binaryName + suffix);
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					"Cannot write " + binaryName + suffix + ": "
+							+ e.getMessage(), type);
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.core;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a bounded number of created and injected objects of a class, so that
+ * they can be reused instead of being created for each use.
+ * <p>
+ * Each thread first uses a small local cache, which requires no
+ * synchronization. The shared pool is split into stripes, which are selected
+ * by the current thread, so that concurrent threads rarely compete for the
+ * same slots. If the pool is empty, a new object is created by the
+ * {@link Factory}. If it is full, released objects are dropped.
+ */
+public class ObjectPool<T> {
+
+	private static final int LOCAL_SIZE = 4;
+
+	/*
+	 * The local cache of a thread, used as stack.
+	 */
+	private static class Local {
+		final Object[] objects = new Object[LOCAL_SIZE];
+		int size;
+	}
+
+	private final Class<T> type;
+	private final Factory factory;
+	private final AtomicReferenceArray<Object> slots;
+	private final int stripes;
+	private final int stripeSize;
+	private final ThreadLocal<Local> local = new ThreadLocal<Local>() {
+		@Override
+		protected Local initialValue() {
+			return new Local();
+		}
+	};
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder overflows = new LongAdder();
+
+	/**
+	 * Creates a new pool which keeps up to <tt>size</tt> shared objects (plus
+	 * a few objects per thread), which are created by the given factory.
+	 */
+	public ObjectPool(Class<T> type, Factory factory, int size) {
+		this.type = type;
+		this.factory = factory;
+		int count = 1;
+		while (count < Runtime.getRuntime().availableProcessors()
+				&& count * 2 <= size) {
+			count *= 2;
+		}
+		this.stripes = count;
+		this.stripeSize = Math.max(1, size / count);
+		this.slots = new AtomicReferenceArray<Object>(stripes * stripeSize);
+	}
+
+	/**
+	 * Returns a pooled object, or a newly created one if the pool is empty.
+	 */
+	@SuppressWarnings("unchecked")
+	public T borrow() {
+		Local cache = local.get();
+		if (cache.size > 0) {
+			Object result = cache.objects[--cache.size];
+			cache.objects[cache.size] = null;
+			hits.increment();
+			return (T) result;
+		}
+		int start = getStripe() * stripeSize;
+		for (int i = 0; i < slots.length(); i++) {
+			int index = (start + i) % slots.length();
+			Object result = slots.get(index);
+			if (result != null && slots.compareAndSet(index, result, null)) {
+				hits.increment();
+				return (T) result;
+			}
+		}
+		misses.increment();
+		return factory.create(type);
+	}
+
+	/**
+	 * Gives the object back to the pool. If it implements {@link Poolable},
+	 * it is reset first.
+	 */
+	public void release(T object) {
+		if (object instanceof Poolable) {
+			((Poolable) object).reset();
+		}
+		Local cache = local.get();
+		if (cache.size < LOCAL_SIZE) {
+			cache.objects[cache.size++] = object;
+			return;
+		}
+		int start = getStripe() * stripeSize;
+		for (int i = 0; i < stripeSize; i++) {
+			if (slots.compareAndSet(start + i, null, object)) {
+				return;
+			}
+		}
+		overflows.increment();
+	}
+
+	private int getStripe() {
+		return (int) (Thread.currentThread().getId() & (stripes - 1));
+	}
+
+	/**
+	 * Returns the class of the pooled objects.
+	 */
+	public Class<T> getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the number of borrowed objects which were taken from the pool.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of borrowed objects which had to be created.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of released objects which were dropped, as the pool
+	 * was full.
+	 */
+	public long getOverflows() {
+		return overflows.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "Pool of " + type.getName() + ": " + getHits() + " hits, "
+				+ getMisses() + " misses, " + getOverflows() + " overflows";
+	}
+}
@@ -21,37 +21,85 @@
  */
 package org.nucleus.core;
 
+import java.util.function.Supplier;
+
 import org.nucleus.Nucleus;
+import org.nucleus.Registry;
 
 /**
  * Provides access to a part registered for a given type. The part is initially
- * fetched from the model and then cached locally.
+ * fetched from the model and then cached locally, until another object is
+ * registered (see {@link Nucleus#getGeneration()}).
+ * <p>
+ * Fields of this type (or {@link Supplier}) which wear {@link Inject} are
+ * filled with a part which is bound to the registry used by the
+ * {@link Factory}, so that the actual lookup is deferred until it is used.
  */
-public class Part<P> {
+public class Part<P> implements Supplier<P> {
 
-	private P object;
-	private Class<P> clazz;
-	private boolean loaded;
+	/*
+	 * Immutable, so that it can be shared between threads without
+	 * synchronization.
+	 */
+	private static class Cache<P> {
+		final long generation;
+		final P object;
 
-	private Part(Class<P> clazz) {
+		Cache(long generation, P object) {
+			this.generation = generation;
+			this.object = object;
+		}
+	}
+
+	private Cache<P> cache;
+	private final Class<P> clazz;
+	private final String name;
+	private final Registry registry;
+
+	Part(Class<P> clazz, String name, Registry registry) {
 		this.clazz = clazz;
+		this.name = name;
+		this.registry = registry;
 	}
 
 	/**
 	 * Creates a new part which queries for the given class.
 	 */
 	public static <P> Part<P> of(Class<P> clazz) {
-		return new Part<P>(clazz);
+		return new Part<P>(clazz, null, null);
+	}
+
+	/**
+	 * Creates a new part which queries the given registry for the given
+	 * class.
+	 */
+	public static <P> Part<P> of(Class<P> clazz, Registry registry) {
+		return new Part<P>(clazz, null, registry);
 	}
 
 	/**
 	 * Returns the first object which was registered for the given class.
 	 */
+	@Override
 	public P get() {
-		if (!loaded) {
-			object = Nucleus.findPart(clazz);
-			loaded = true;
+		// The generation is read before the lookup, so that a concurrent
+		// registration leads to another lookup on the next invocation.
+		long generation = registry == null ? Nucleus.getGeneration()
+				: registry.getGeneration();
+		Cache<P> result = cache;
+		if (result == null || result.generation != generation) {
+			result = new Cache<P>(generation, find());
+			cache = result;
+		}
+		return result.object;
+	}
+
+	private P find() {
+		if (registry == null) {
+			return name == null ? Nucleus.findPart(clazz) : Nucleus.findPart(
+					clazz, name);
 		}
-		return object;
+		return name == null ? registry.findPart(clazz) : registry.findPart(
+				clazz, name);
 	}
 }
@@ -0,0 +1,354 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.nucleus.Nucleus;
+
+/**
+ * Describes the dependencies between the parts created by the
+ * {@link ServiceLoadAction}, based on their {@link Inject} and
+ * {@link InjectList} fields and constructor parameters (as reported by their
+ * {@link Registration}). A single injection only depends on the part which
+ * is found first (by priority, then in registration order), just like
+ * {@link org.nucleus.Nucleus#findPart(Class)} returns it, while a list
+ * depends on all parts registered for its type. Named injections only
+ * depend on the part registered with that name. Lazy handles (like
+ * {@link Part}) are no dependencies, therefore they can be used to break
+ * cycles.
+ * <p>
+ * Parts which depend on each other (directly or indirectly) form a cycle and
+ * are created together as a single unit. The units are created in topological
+ * order, so that all dependencies of a part are fully created and injected
+ * before the part itself. Independent units can be created concurrently.
+ */
+class PartGraph {
+
+	private final List<DeferredInstance> parts;
+	private final List<Set<Integer>> dependencies = new ArrayList<Set<Integer>>();
+
+	/*
+	 * Strongly connected components, in the order in which they have to be
+	 * created (dependencies first), each listing its parts in scan order.
+	 */
+	private final List<List<Integer>> units = new ArrayList<List<Integer>>();
+	private final int[] unitOf;
+
+	PartGraph(List<DeferredInstance> parts) {
+		this.parts = parts;
+		this.unitOf = new int[parts.size()];
+		Map<Class<?>, List<Integer>> providers = new HashMap<Class<?>, List<Integer>>();
+		Map<Class<?>, Map<String, Integer>> named = new HashMap<Class<?>, Map<String, Integer>>();
+		for (int i = 0; i < parts.size(); i++) {
+			Registration registration = parts.get(i).getRegistration();
+			for (Class<?> marker : registration.getClasses()) {
+				List<Integer> list = providers.get(marker);
+				if (list == null) {
+					list = new ArrayList<Integer>();
+					providers.put(marker, list);
+				}
+				list.add(i);
+				if (!registration.getName().isEmpty()) {
+					Map<String, Integer> names = named.get(marker);
+					if (names == null) {
+						names = new HashMap<String, Integer>();
+						named.put(marker, names);
+					}
+					if (!names.containsKey(registration.getName())) {
+						names.put(registration.getName(), i);
+					}
+				}
+			}
+		}
+		Map<Class<?>, Integer> first = new HashMap<Class<?>, Integer>();
+		for (Map.Entry<Class<?>, List<Integer>> entry : providers.entrySet()) {
+			first.put(entry.getKey(), findFirst(entry.getValue()));
+		}
+		for (DeferredInstance part : parts) {
+			dependencies.add(findDependencies(part.getRegistration(),
+					providers, first, named));
+		}
+		computeUnits();
+	}
+
+	/*
+	 * Returns the provider with the lowest priority, the first one in
+	 * registration order if several have the same priority.
+	 */
+	private int findFirst(List<Integer> providers) {
+		int result = providers.get(0);
+		for (int provider : providers) {
+			if (parts.get(provider).getPriority() < parts.get(result)
+					.getPriority()) {
+				result = provider;
+			}
+		}
+		return result;
+	}
+
+	private static Set<Integer> findDependencies(Registration registration,
+			Map<Class<?>, List<Integer>> providers,
+			Map<Class<?>, Integer> first,
+			Map<Class<?>, Map<String, Integer>> named) {
+		Set<Integer> result = new TreeSet<Integer>();
+		Class<?>[] types = registration.getDependencies();
+		String[] names = registration.getDependencyNames();
+		boolean[] lists = registration.getDependencyLists();
+		for (int i = 0; i < types.length; i++) {
+			if (!names[i].isEmpty()) {
+				// A named injection only depends on the named part
+				Map<String, Integer> parts = named.get(types[i]);
+				if (parts != null && parts.containsKey(names[i])) {
+					result.add(parts.get(names[i]));
+				}
+			} else if (lists[i]) {
+				if (providers.containsKey(types[i])) {
+					result.addAll(providers.get(types[i]));
+				}
+			} else if (first.containsKey(types[i])) {
+				result.add(first.get(types[i]));
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Tarjan's algorithm, which emits each component after all components it
+	 * depends on.
+	 */
+	private void computeUnits() {
+		int[] index = new int[parts.size()];
+		int[] lowlink = new int[parts.size()];
+		boolean[] onStack = new boolean[parts.size()];
+		List<Integer> stack = new ArrayList<Integer>();
+		AtomicInteger counter = new AtomicInteger(1);
+		for (int i = 0; i < parts.size(); i++) {
+			if (index[i] == 0) {
+				connect(i, index, lowlink, onStack, stack, counter);
+			}
+		}
+	}
+
+	/*
+	 * Performs the depth-first search starting at the given node. Instead of
+	 * recursing (which overflows the call stack for long chains of
+	 * dependencies), the nodes being visited are kept in a list, along with
+	 * their dependencies which remain to be visited.
+	 */
+	private void connect(int root, int[] index, int[] lowlink,
+			boolean[] onStack, List<Integer> stack, AtomicInteger counter) {
+		List<Integer> path = new ArrayList<Integer>();
+		List<Iterator<Integer>> remaining = new ArrayList<Iterator<Integer>>();
+		int next = root;
+		while (next >= 0 || !path.isEmpty()) {
+			if (next >= 0) {
+				index[next] = counter.get();
+				lowlink[next] = counter.getAndIncrement();
+				stack.add(next);
+				onStack[next] = true;
+				path.add(next);
+				remaining.add(dependencies.get(next).iterator());
+				next = -1;
+			}
+			int node = path.get(path.size() - 1);
+			Iterator<Integer> iter = remaining.get(remaining.size() - 1);
+			if (iter.hasNext()) {
+				int dependency = iter.next();
+				if (index[dependency] == 0) {
+					next = dependency;
+				} else if (onStack[dependency]) {
+					lowlink[node] = Math.min(lowlink[node], index[dependency]);
+				}
+				continue;
+			}
+			path.remove(path.size() - 1);
+			remaining.remove(remaining.size() - 1);
+			if (!path.isEmpty()) {
+				int parent = path.get(path.size() - 1);
+				lowlink[parent] = Math.min(lowlink[parent], lowlink[node]);
+			}
+			if (lowlink[node] == index[node]) {
+				List<Integer> unit = new ArrayList<Integer>();
+				int member;
+				do {
+					member = stack.remove(stack.size() - 1);
+					onStack[member] = false;
+					unitOf[member] = units.size();
+					unit.add(member);
+				} while (member != node);
+				Collections.sort(unit);
+				units.add(unit);
+			}
+		}
+	}
+
+	/**
+	 * Returns a description of each dependency cycle, like
+	 * <tt>A -> B -> A</tt>.
+	 */
+	List<String> getCycles() {
+		List<String> result = new ArrayList<String>();
+		for (List<Integer> unit : units) {
+			int first = unit.get(0);
+			if (unit.size() > 1 || dependencies.get(first).contains(first)) {
+				List<Integer> path = new ArrayList<Integer>();
+				path.add(first);
+				findPath(first, first, path);
+				StringBuilder sb = new StringBuilder();
+				for (int node : path) {
+					sb.append(parts.get(node).getType().getName());
+					sb.append(" -> ");
+				}
+				sb.append(parts.get(first).getType().getName());
+				result.add(sb.toString());
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Searches a path from the given node back to the target, staying within
+	 * the unit of the target. Like connect, this keeps its own stack of
+	 * remaining dependencies for each node on the path.
+	 */
+	private boolean findPath(int node, int target, List<Integer> path) {
+		Set<Integer> visited = new TreeSet<Integer>(path);
+		List<Iterator<Integer>> remaining = new ArrayList<Iterator<Integer>>();
+		remaining.add(dependencies.get(node).iterator());
+		while (!remaining.isEmpty()) {
+			Iterator<Integer> iter = remaining.get(remaining.size() - 1);
+			if (!iter.hasNext()) {
+				remaining.remove(remaining.size() - 1);
+				if (!remaining.isEmpty()) {
+					path.remove(path.size() - 1);
+				}
+				continue;
+			}
+			int dependency = iter.next();
+			if (dependency == target) {
+				return true;
+			}
+			if (unitOf[dependency] == unitOf[target]
+					&& visited.add(dependency)) {
+				path.add(dependency);
+				remaining.add(dependencies.get(dependency).iterator());
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Creates all parts which are not lazy. If an executor is given,
+	 * independent parts are created concurrently, otherwise all parts are
+	 * created on the calling thread.
+	 */
+	void create(Set<DeferredInstance> lazy, ExecutorService executor)
+			throws InterruptedException {
+		if (executor == null) {
+			for (List<Integer> unit : units) {
+				createUnit(unit, lazy);
+			}
+			return;
+		}
+		// Each unit waits for the units it depends on and triggers its
+		// dependents once it is completed.
+		final List<Set<Integer>> dependents = new ArrayList<Set<Integer>>();
+		final AtomicInteger[] pending = new AtomicInteger[units.size()];
+		for (int u = 0; u < units.size(); u++) {
+			dependents.add(new TreeSet<Integer>());
+		}
+		for (int u = 0; u < units.size(); u++) {
+			Set<Integer> required = new TreeSet<Integer>();
+			for (int node : units.get(u)) {
+				for (int dependency : dependencies.get(node)) {
+					if (unitOf[dependency] != u) {
+						required.add(unitOf[dependency]);
+					}
+				}
+			}
+			pending[u] = new AtomicInteger(required.size());
+			for (int r : required) {
+				dependents.get(r).add(u);
+			}
+		}
+		// Determine the initial units before scheduling any of them, as
+		// running units already trigger their dependents.
+		List<Integer> initial = new ArrayList<Integer>();
+		for (int u = 0; u < units.size(); u++) {
+			if (pending[u].get() == 0) {
+				initial.add(u);
+			}
+		}
+		CountDownLatch done = new CountDownLatch(units.size());
+		for (int u : initial) {
+			schedule(u, lazy, executor, dependents, pending, done);
+		}
+		done.await();
+	}
+
+	private void schedule(final int unit, final Set<DeferredInstance> lazy,
+			final ExecutorService executor,
+			final List<Set<Integer>> dependents,
+			final AtomicInteger[] pending, final CountDownLatch done) {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					createUnit(units.get(unit), lazy);
+				} finally {
+					for (int dependent : dependents.get(unit)) {
+						if (pending[dependent].decrementAndGet() == 0) {
+							schedule(dependent, lazy, executor, dependents,
+									pending, done);
+						}
+					}
+					done.countDown();
+				}
+			}
+		});
+	}
+
+	private void createUnit(List<Integer> unit, Set<DeferredInstance> lazy) {
+		for (int node : unit) {
+			DeferredInstance part = parts.get(node);
+			if (!lazy.contains(part)) {
+				try {
+					part.get();
+				} catch (Throwable e) {
+					Nucleus.LOG.warning("Failed to create part: "
+							+ part.getType().getName() + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+}
@@ -24,41 +24,77 @@ package org.nucleus.core;
 import java.util.List;
 
 import org.nucleus.Nucleus;
+import org.nucleus.Registry;
 
 /**
- * Returns all object which were registered for a given class.
+ * Returns all object which were registered for a given class. The list is
+ * cached locally, until another object is registered (see
+ * {@link Nucleus#getGeneration()}).
  */
 public class Parts<P> {
 
-	private List<P> objects;
-	private Class<P> clazz;
+	/*
+	 * Immutable, so that it can be shared between threads without
+	 * synchronization.
+	 */
+	private static class Cache<P> {
+		final long generation;
+		final List<P> objects;
+
+		Cache(long generation, List<P> objects) {
+			this.generation = generation;
+			this.objects = objects;
+		}
+	}
+
+	private Cache<P> cache;
+	private final Class<P> clazz;
+	private final Registry registry;
 
-	private Parts(Class<P> clazz) {
+	private Parts(Class<P> clazz, Registry registry) {
 		this.clazz = clazz;
+		this.registry = registry;
 	}
 
 	/**
 	 * Creates a new instance for the given class.
 	 */
 	public static <P> Parts<P> of(Class<P> clazz) {
-		return new Parts<P>(clazz);
+		return new Parts<P>(clazz, null);
+	}
+
+	/**
+	 * Creates a new instance which queries the given registry for the given
+	 * class.
+	 */
+	public static <P> Parts<P> of(Class<P> clazz, Registry registry) {
+		return new Parts<P>(clazz, registry);
 	}
 
 	/**
 	 * Returns a objects which were registered for the given class. This list is
-	 * once fetched and kept in a local cache.
+	 * kept in a local cache, which is refreshed once another object was
+	 * registered. It is read-only and shared with all other callers (see
+	 * {@link Nucleus#findParts(Class)}).
 	 */
 	public List<P> get() {
-		if (objects == null) {
-			objects = getUncached();
+		// The generation is read before the lookup, so that a concurrent
+		// registration leads to another lookup on the next invocation.
+		long generation = registry == null ? Nucleus.getGeneration()
+				: registry.getGeneration();
+		Cache<P> result = cache;
+		if (result == null || result.generation != generation) {
+			result = new Cache<P>(generation, getUncached());
+			cache = result;
 		}
-		return objects;
+		return result.objects;
 	}
 
 	/**
 	 * Returns all objects without relying on the internal cache.
 	 */
 	public List<P> getUncached() {
-		return Nucleus.findParts(clazz);
+		return registry == null ? Nucleus.findParts(clazz) : registry
+				.findParts(clazz);
 	}
 }
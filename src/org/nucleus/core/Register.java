@@ -26,9 +26,14 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+import org.nucleus.Nucleus.Priority;
+
 /**
- * Classes wearing this annotation will be instantiated using the no-args
- * constructor and registered for the listed classes.
+ * Classes wearing this annotation will be instantiated and registered for the
+ * listed classes. The instance is created using the constructor wearing
+ * {@link Inject}, whose parameters are looked up like injected fields, or the
+ * no-args constructor if no constructor wears it. Afterwards the fields of the
+ * instance are injected.
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(value = ElementType.TYPE)
@@ -37,4 +42,23 @@ public @interface Register {
 	 * Names the classes for which the created instance will be registered.
 	 */
 	Class<?>[] classes();
+
+	/**
+	 * Determines if the instance is created (and injected) when it is looked up
+	 * for the first time, rather than on startup.
+	 */
+	boolean lazy() default false;
+
+	/**
+	 * Determines the name under which the instance is registered, so that it
+	 * can be found using {@link org.nucleus.Nucleus#findPart(Class, String)}.
+	 */
+	String name() default "";
+
+	/**
+	 * Determines the position of the instance in lookup results and
+	 * injected lists. Lower priorities come first (see
+	 * {@link org.nucleus.Nucleus.Priority}).
+	 */
+	int priority() default Priority.DEFAULT;
 }
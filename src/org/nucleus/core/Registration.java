@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.core;
+
+/**
+ * Describes how a class wearing {@link Register} is registered and what it
+ * depends on.
+ * <p>
+ * Implementations are generated by the {@link InjectorProcessor} as
+ * <tt>[class name]$$Registration</tt>, so that the {@link ServiceLoadAction}
+ * doesn't need to inspect the class reflectively. Otherwise the annotations
+ * are read at runtime.
+ */
+public interface Registration {
+
+	/**
+	 * Returns the registered class.
+	 */
+	Class<?> getType();
+
+	/**
+	 * Returns the classes for which the instance is registered (see
+	 * {@link Register#classes()}).
+	 */
+	Class<?>[] getClasses();
+
+	/**
+	 * Returns the name of the instance, or an empty string.
+	 */
+	String getName();
+
+	/**
+	 * Returns the priority of the instance.
+	 */
+	int getPriority();
+
+	/**
+	 * Determines if the instance is created on its first lookup.
+	 */
+	boolean isLazy();
+
+	/**
+	 * Returns the classes looked up when the instance is created and injected
+	 * (lazy handles excluded). The returned array must not be modified.
+	 */
+	Class<?>[] getDependencies();
+
+	/**
+	 * Returns the name used for each dependency (or an empty string), in the
+	 * same order as {@link #getDependencies()}.
+	 */
+	String[] getDependencyNames();
+
+	/**
+	 * Determines for each dependency, in the same order as
+	 * {@link #getDependencies()}, whether all instances are injected (see
+	 * {@link InjectList}) rather than only the first one.
+	 */
+	boolean[] getDependencyLists();
+
+}
@@ -22,26 +22,55 @@
 package org.nucleus.core;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.nucleus.Nucleus;
-import org.nucleus.Nucleus.ClassLoadAction;
+import org.nucleus.Nucleus.SelectiveClassLoadAction;
+import org.nucleus.scan.ClassInterest;
 
 /**
  * Loads all classes wearing the @Register annotation.
+ * <p>
+ * Each part is registered as {@link DeferredInstance} right away, so that the
+ * registration order matches the scan order. Once all classes are known, the
+ * parts which are not lazy are created and injected in the order of their
+ * dependencies (see {@link PartGraph}). If the system property
+ * <tt>nucleus.parts.parallel</tt> is set, independent parts are created
+ * concurrently. Lazy parts are created on their first lookup.
+ * <p>
+ * If the {@link InjectorProcessor} generated a {@link Registration} for a
+ * class, it is used instead of reading the annotations at runtime.
  */
-public class ServiceLoadAction implements ClassLoadAction {
+public class ServiceLoadAction implements SelectiveClassLoadAction {
 
-	private List<Object> createdObjects = new ArrayList<Object>();
+	private List<DeferredInstance> parts = new ArrayList<DeferredInstance>();
+	private Set<DeferredInstance> lazyParts = new HashSet<DeferredInstance>();
+
+	@Override
+	public ClassInterest getInterest() {
+		return ClassInterest.annotatedWith(Register.class);
+	}
 
 	@Override
 	public void handle(Class<?> clazz) throws Exception {
-		if (clazz.isAnnotationPresent(Register.class)) {
-			Object instance = clazz.newInstance();
-			createdObjects.add(instance);
-			for (Class<?> marker : clazz.getAnnotation(Register.class)
-					.classes()) {
-				Nucleus.register(marker, instance);
+		Registration registration = GeneratedCode.getRegistration(clazz);
+		if (registration != null) {
+			DeferredInstance part = new DeferredInstance(registration);
+			parts.add(part);
+			if (registration.isLazy()
+					|| Boolean.getBoolean(Nucleus.LAZY_PARTS)) {
+				lazyParts.add(part);
+			}
+			String name = registration.getName().isEmpty() ? null
+					: registration.getName();
+			for (Class<?> marker : registration.getClasses()) {
+				Nucleus.register(marker, name, part);
 			}
 		}
 
@@ -49,10 +78,36 @@ public class ServiceLoadAction implements ClassLoadAction {
 
 	@Override
 	public void loadingCompleted() throws Exception {
-		for (Object obj : createdObjects) {
-			Factory.inject(obj);
+		PartGraph graph = new PartGraph(parts);
+		for (String cycle : graph.getCycles()) {
+			Nucleus.LOG.warning("Cyclic dependency between parts: " + cycle
+					+ " - these parts are created together on one thread");
+		}
+		ExecutorService executor = null;
+		if (Boolean.getBoolean(Nucleus.PARALLEL_PARTS)) {
+			executor = Executors.newFixedThreadPool(Math.max(1, Integer
+					.getInteger(Nucleus.SCAN_THREADS, Runtime.getRuntime()
+							.availableProcessors())), new ThreadFactory() {
+				private AtomicInteger counter = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "nucleus-parts-"
+							+ counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		try {
+			graph.create(lazyParts, executor);
+		} finally {
+			if (executor != null) {
+				executor.shutdown();
+			}
 		}
-		createdObjects.clear();
+		parts.clear();
+		lazyParts.clear();
 	}
 
 }
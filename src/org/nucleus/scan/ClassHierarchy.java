@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.scan;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the super types of classes based on their {@link ClassInfo}. Types
+ * which were not part of the scan (e.g. libraries without a
+ * component.properties) are read from the class loader, without loading them.
+ * Classes of the JDK are inspected via reflection instead, as they are
+ * usually loaded already, while reading the runtime image is expensive during
+ * a cold start.
+ */
+public class ClassHierarchy {
+
+	/*
+	 * Marks types which could not be resolved in the cache.
+	 */
+	private static final ClassInfo UNKNOWN = new ClassInfo("", null,
+			new String[0], new String[0], 0);
+
+	private final ClassLoader loader;
+	private final Map<String, ClassInfo> infos = new ConcurrentHashMap<String, ClassInfo>();
+	private final Map<String, Set<String>> supertypes = new ConcurrentHashMap<String, Set<String>>();
+
+	/**
+	 * Creates a new hierarchy for the given classes. Missing types are read
+	 * from the given class loader.
+	 */
+	public ClassHierarchy(List<ClassInfo> classes, ClassLoader loader) {
+		this.loader = loader;
+		for (ClassInfo info : classes) {
+			if (!infos.containsKey(info.getName())) {
+				infos.put(info.getName(), info);
+			}
+		}
+	}
+
+	/**
+	 * Returns the names of all classes and interfaces the given class extends
+	 * or implements - directly or indirectly. The set also contains the name of
+	 * the class itself.
+	 */
+	public Set<String> getSupertypes(ClassInfo info) {
+		Set<String> result = supertypes.get(info.getName());
+		if (result == null) {
+			result = new HashSet<String>();
+			result.add(info.getName());
+			addSupertype(info.getSuperName(), result);
+			for (String iface : info.getInterfaces()) {
+				addSupertype(iface, result);
+			}
+			result = Collections.unmodifiableSet(result);
+			supertypes.put(info.getName(), result);
+		}
+		return result;
+	}
+
+	private void addSupertype(String name, Set<String> result) {
+		if (name == null || result.contains(name)) {
+			return;
+		}
+		ClassInfo info = find(name);
+		if (info == null) {
+			result.add(name);
+		} else {
+			result.addAll(getSupertypes(info));
+		}
+	}
+
+	/**
+	 * Determines if the given class is a subtype of (or equal to) the given
+	 * type.
+	 */
+	public boolean isSubtypeOf(ClassInfo info, Class<?> type) {
+		return getSupertypes(info).contains(type.getName());
+	}
+
+	/*
+	 * Returns the info for the given type, reading it from the class loader if
+	 * it was not part of the scan.
+	 */
+	private ClassInfo find(String name) {
+		ClassInfo info = infos.get(name);
+		if (info == null) {
+			info = name.startsWith("java.") ? describe(name) : read(name);
+			infos.put(name, info);
+		}
+		return info == UNKNOWN ? null : info;
+	}
+
+	private ClassInfo read(String name) {
+		InputStream in = loader.getResourceAsStream(name.replace('.', '/')
+				+ ".class");
+		if (in == null) {
+			return UNKNOWN;
+		}
+		try {
+			try {
+				return ClassInfo.read(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// The type is treated as a leaf of the hierarchy
+			return UNKNOWN;
+		}
+	}
+
+	/*
+	 * Creates the info of a JDK class based on the class itself. Like in the
+	 * class file, the superclass of an interface is Object.
+	 */
+	private ClassInfo describe(String name) {
+		try {
+			Class<?> type = Class.forName(name, false, loader);
+			Class<?>[] interfaces = type.getInterfaces();
+			String[] names = new String[interfaces.length];
+			for (int i = 0; i < interfaces.length; i++) {
+				names[i] = interfaces[i].getName();
+			}
+			Class<?> superclass = type.isInterface() ? Object.class : type
+					.getSuperclass();
+			return new ClassInfo(name, superclass == null ? null : superclass
+					.getName(), names, new String[0], type.getModifiers());
+		} catch (ClassNotFoundException e) {
+			return UNKNOWN;
+		} catch (LinkageError e) {
+			return UNKNOWN;
+		}
+	}
+}
@@ -0,0 +1,393 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.scan;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Describes a class as found in its class file. The constant pool, the names
+ * of the super class and the implemented interfaces as well as the runtime
+ * visible annotations of the class are read directly from the bytes, so that
+ * the class neither has to be loaded nor initialized to decide whether it is
+ * of any interest.
+ */
+public class ClassInfo {
+
+	private static final int ACC_INTERFACE = 0x0200;
+	private static final int ACC_ABSTRACT = 0x0400;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_FLOAT = 4;
+	private static final int CONSTANT_LONG = 5;
+	private static final int CONSTANT_DOUBLE = 6;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_STRING = 8;
+	private static final int CONSTANT_FIELD_REF = 9;
+	private static final int CONSTANT_METHOD_REF = 10;
+	private static final int CONSTANT_INTERFACE_METHOD_REF = 11;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+	private static final int CONSTANT_METHOD_HANDLE = 15;
+	private static final int CONSTANT_METHOD_TYPE = 16;
+	private static final int CONSTANT_DYNAMIC = 17;
+	private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+	private static final int CONSTANT_MODULE = 19;
+	private static final int CONSTANT_PACKAGE = 20;
+
+	private final String name;
+	private final String superName;
+	private final String[] interfaces;
+	private final String[] annotations;
+	private final int access;
+
+	/**
+	 * Creates a new class info. All names are binary names as returned by
+	 * {@link Class#getName()}.
+	 */
+	public ClassInfo(String name, String superName, String[] interfaces,
+			String[] annotations, int access) {
+		this.name = name;
+		this.superName = superName;
+		this.interfaces = interfaces;
+		this.annotations = annotations;
+		this.access = access;
+	}
+
+	/**
+	 * Parses the given class file. The stream is read completely but not
+	 * closed.
+	 */
+	public static ClassInfo read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+		byte[] buffer = new byte[4096];
+		int read = in.read(buffer);
+		while (read >= 0) {
+			out.write(buffer, 0, read);
+			read = in.read(buffer);
+		}
+		return read(out.toByteArray());
+	}
+
+	/**
+	 * Parses the given class file.
+	 */
+	public static ClassInfo read(byte[] bytes) throws IOException {
+		try {
+			return new Parser(bytes).parse();
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Truncated class file", e);
+		}
+	}
+
+	/*
+	 * Reads a class file directly from its bytes. Only the offsets of the
+	 * constant pool entries are recorded, the few strings which are actually
+	 * needed (names of classes, attributes and annotations) are decoded on
+	 * demand.
+	 */
+	private static class Parser {
+
+		private final byte[] bytes;
+		private int pos;
+		private int[] offsets;
+
+		Parser(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		ClassInfo parse() throws IOException {
+			if (readInt() != 0xCAFEBABE) {
+				throw new IOException("Not a class file");
+			}
+			pos += 4;
+			offsets = new int[readUnsignedShort()];
+			for (int i = 1; i < offsets.length; i++) {
+				int tag = readUnsignedByte();
+				offsets[i] = pos;
+				switch (tag) {
+				case CONSTANT_UTF8:
+					pos += 2 + readUnsignedShort(pos);
+					break;
+				case CONSTANT_CLASS:
+				case CONSTANT_STRING:
+				case CONSTANT_METHOD_TYPE:
+				case CONSTANT_MODULE:
+				case CONSTANT_PACKAGE:
+					pos += 2;
+					break;
+				case CONSTANT_METHOD_HANDLE:
+					pos += 3;
+					break;
+				case CONSTANT_LONG:
+				case CONSTANT_DOUBLE:
+					pos += 8;
+					i++;
+					break;
+				case CONSTANT_INTEGER:
+				case CONSTANT_FLOAT:
+				case CONSTANT_FIELD_REF:
+				case CONSTANT_METHOD_REF:
+				case CONSTANT_INTERFACE_METHOD_REF:
+				case CONSTANT_NAME_AND_TYPE:
+				case CONSTANT_DYNAMIC:
+				case CONSTANT_INVOKE_DYNAMIC:
+					pos += 4;
+					break;
+				default:
+					throw new IOException("Invalid constant pool tag: " + tag);
+				}
+			}
+			int access = readUnsignedShort();
+			String name = className(readUnsignedShort());
+			String superName = className(readUnsignedShort());
+			String[] interfaces = new String[readUnsignedShort()];
+			for (int i = 0; i < interfaces.length; i++) {
+				interfaces[i] = className(readUnsignedShort());
+			}
+			skipMembers();
+			skipMembers();
+			String[] annotations = new String[0];
+			int attributes = readUnsignedShort();
+			for (int i = 0; i < attributes; i++) {
+				int attribute = readUnsignedShort();
+				int length = readInt();
+				if (isUtf8(attribute, "RuntimeVisibleAnnotations")) {
+					annotations = readAnnotations();
+				} else {
+					pos += length;
+				}
+			}
+			if (pos > bytes.length) {
+				throw new IOException("Truncated class file");
+			}
+			return new ClassInfo(name, superName, interfaces, annotations,
+					access);
+		}
+
+		private int readUnsignedByte() {
+			return bytes[pos++] & 0xFF;
+		}
+
+		private int readUnsignedShort(int offset) {
+			return (bytes[offset] & 0xFF) << 8 | bytes[offset + 1] & 0xFF;
+		}
+
+		private int readUnsignedShort() {
+			int result = readUnsignedShort(pos);
+			pos += 2;
+			return result;
+		}
+
+		private int readInt() {
+			int result = readUnsignedShort(pos) << 16
+					| readUnsignedShort(pos + 2);
+			pos += 4;
+			return result;
+		}
+
+		/*
+		 * Returns the offset of the given constant pool entry behind its tag.
+		 */
+		private int entry(int index, int tag) throws IOException {
+			if (index <= 0 || index >= offsets.length || offsets[index] == 0
+					|| bytes[offsets[index] - 1] != tag) {
+				throw new IOException("Invalid constant pool index: " + index);
+			}
+			return offsets[index];
+		}
+
+		/*
+		 * Decodes the given UTF8 entry. Names are almost always plain ASCII,
+		 * which is copied directly, everything else is decoded as modified
+		 * UTF-8.
+		 */
+		private String utf8(int index) throws IOException {
+			int offset = entry(index, CONSTANT_UTF8);
+			int length = readUnsignedShort(offset);
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++) {
+				byte b = bytes[offset + 2 + i];
+				if (b < 0) {
+					return new DataInputStream(new ByteArrayInputStream(bytes,
+							offset, 2 + length)).readUTF();
+				}
+				chars[i] = (char) b;
+			}
+			return new String(chars);
+		}
+
+		/*
+		 * Compares the given UTF8 entry with an ASCII string without decoding
+		 * it.
+		 */
+		private boolean isUtf8(int index, String value) throws IOException {
+			int offset = entry(index, CONSTANT_UTF8);
+			if (readUnsignedShort(offset) != value.length()) {
+				return false;
+			}
+			for (int i = 0; i < value.length(); i++) {
+				if (bytes[offset + 2 + i] != value.charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private String className(int index) throws IOException {
+			if (index == 0) {
+				return null;
+			}
+			return utf8(readUnsignedShort(entry(index, CONSTANT_CLASS)))
+					.replace('/', '.');
+		}
+
+		private void skipMembers() {
+			int count = readUnsignedShort();
+			for (int i = 0; i < count; i++) {
+				pos += 6;
+				int attributes = readUnsignedShort();
+				for (int a = 0; a < attributes; a++) {
+					pos += 2;
+					int length = readInt();
+					pos += length;
+				}
+			}
+		}
+
+		private String[] readAnnotations() throws IOException {
+			List<String> result = new ArrayList<String>();
+			int count = readUnsignedShort();
+			for (int i = 0; i < count; i++) {
+				String descriptor = utf8(readUnsignedShort());
+				result.add(descriptor.substring(1, descriptor.length() - 1)
+						.replace('/', '.'));
+				skipElementValuePairs();
+			}
+			return result.toArray(new String[result.size()]);
+		}
+
+		private void skipElementValuePairs() {
+			int pairs = readUnsignedShort();
+			for (int i = 0; i < pairs; i++) {
+				pos += 2;
+				skipElementValue();
+			}
+		}
+
+		private void skipElementValue() {
+			int tag = readUnsignedByte();
+			switch (tag) {
+			case 'e':
+				pos += 4;
+				break;
+			case '@':
+				pos += 2;
+				skipElementValuePairs();
+				break;
+			case '[':
+				int values = readUnsignedShort();
+				for (int i = 0; i < values; i++) {
+					skipElementValue();
+				}
+				break;
+			default:
+				// Constants, strings and class literals.
+				pos += 2;
+			}
+		}
+	}
+
+	/**
+	 * Returns the binary name of the class.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the binary name of the super class or <tt>null</tt> for
+	 * java.lang.Object.
+	 */
+	public String getSuperName() {
+		return superName;
+	}
+
+	/**
+	 * Returns the binary names of all directly implemented interfaces.
+	 */
+	public String[] getInterfaces() {
+		return interfaces;
+	}
+
+	/**
+	 * Returns the names of all runtime visible annotations of the class.
+	 */
+	public String[] getAnnotations() {
+		return annotations;
+	}
+
+	/**
+	 * Returns the access flags of the class.
+	 */
+	public int getAccess() {
+		return access;
+	}
+
+	/**
+	 * Determines if the class wears the given annotation.
+	 */
+	public boolean hasAnnotation(String annotation) {
+		for (String a : annotations) {
+			if (a.equals(annotation)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Determines if this is an interface (or annotation).
+	 */
+	public boolean isInterface() {
+		return (access & ACC_INTERFACE) != 0;
+	}
+
+	/**
+	 * Determines if this is an abstract class or an interface.
+	 */
+	public boolean isAbstract() {
+		return (access & ACC_ABSTRACT) != 0;
+	}
+
+	@Override
+	public String toString() {
+		return name + " extends " + superName + " implements "
+				+ Arrays.toString(interfaces);
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.scan;
+
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Describes which classes a {@link org.nucleus.Nucleus.ClassLoadAction} is
+ * interested in. A class matches, if it wears one of the given annotations,
+ * extends or implements one of the given types or resides in one of the given
+ * packages (or one of their sub packages).
+ * <p>
+ * Interests are created using the static factory methods and combined using
+ * {@link #or(ClassInterest)}.
+ */
+public class ClassInterest {
+
+	private final Set<String> annotations = new LinkedHashSet<String>();
+	private final Set<String> supertypes = new LinkedHashSet<String>();
+	private final Set<String> packages = new LinkedHashSet<String>();
+
+	private ClassInterest() {
+	}
+
+	/**
+	 * Matches all classes wearing the given annotation.
+	 */
+	public static ClassInterest annotatedWith(
+			Class<? extends Annotation> annotation) {
+		ClassInterest result = new ClassInterest();
+		result.annotations.add(annotation.getName());
+		return result;
+	}
+
+	/**
+	 * Matches all classes which extend or implement the given type (including
+	 * the type itself).
+	 */
+	public static ClassInterest subtypesOf(Class<?> type) {
+		ClassInterest result = new ClassInterest();
+		result.supertypes.add(type.getName());
+		return result;
+	}
+
+	/**
+	 * Matches all classes in the given package or one of its sub packages.
+	 */
+	public static ClassInterest inPackage(String packageName) {
+		ClassInterest result = new ClassInterest();
+		result.packages.add(packageName);
+		return result;
+	}
+
+	/**
+	 * Creates a new interest which matches all classes matched by this or by
+	 * the given interest.
+	 */
+	public ClassInterest or(ClassInterest other) {
+		ClassInterest result = new ClassInterest();
+		result.annotations.addAll(annotations);
+		result.annotations.addAll(other.annotations);
+		result.supertypes.addAll(supertypes);
+		result.supertypes.addAll(other.supertypes);
+		result.packages.addAll(packages);
+		result.packages.addAll(other.packages);
+		return result;
+	}
+
+	/**
+	 * Returns the names of the annotations of interest.
+	 */
+	public Set<String> getAnnotations() {
+		return Collections.unmodifiableSet(annotations);
+	}
+
+	/**
+	 * Returns the names of the super types of interest.
+	 */
+	public Set<String> getSupertypes() {
+		return Collections.unmodifiableSet(supertypes);
+	}
+
+	/**
+	 * Returns the packages of interest.
+	 */
+	public Set<String> getPackages() {
+		return Collections.unmodifiableSet(packages);
+	}
+
+	/**
+	 * Determines if the given class is of interest.
+	 */
+	public boolean matches(ClassInfo info, ClassHierarchy hierarchy) {
+		for (String annotation : info.getAnnotations()) {
+			if (annotations.contains(annotation)) {
+				return true;
+			}
+		}
+		for (String pkg : packages) {
+			if (info.getName().startsWith(pkg + ".")) {
+				return true;
+			}
+		}
+		if (!supertypes.isEmpty()) {
+			for (String type : hierarchy.getSupertypes(info)) {
+				if (supertypes.contains(type)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "annotations: " + annotations + ", supertypes: " + supertypes
+				+ ", packages: " + packages;
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.scan;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * A list of class names which an annotation processor writes into the class
+ * output, like the {@link ComponentIndex}. Used by the processors of Nucleus.
+ * <p>
+ * If only a part of the sources is compiled (e.g. by an incremental build),
+ * the list written by a previous compilation into the same output directory
+ * is merged: its entries are kept as long as their class was not compiled
+ * this time but still exists. Entries of generated classes (whose name
+ * contains <tt>$$</tt>) belong to the class they were generated for.
+ */
+public class ClassNameList {
+
+	private final ProcessingEnvironment processingEnv;
+	private final String location;
+	private final String header;
+	private final Set<String> classNames = new TreeSet<String>();
+	private final Set<String> compiled = new HashSet<String>();
+
+	/**
+	 * Creates a list which is written to the given location. Unless it is
+	 * <tt>null</tt>, the header is written as a comment in front of the
+	 * entries.
+	 */
+	public ClassNameList(ProcessingEnvironment processingEnv, String location,
+			String header) {
+		this.processingEnv = processingEnv;
+		this.location = location;
+		this.header = header;
+	}
+
+	/**
+	 * Records that the given class is compiled by the current compilation, so
+	 * that its entries of a previous compilation are dropped. Returns the
+	 * binary name of the class.
+	 */
+	public String addCompiled(TypeElement type) {
+		String name = processingEnv.getElementUtils().getBinaryName(type)
+				.toString();
+		compiled.add(name);
+		return name;
+	}
+
+	/**
+	 * Adds the given class name to the list.
+	 */
+	public void add(String className) {
+		classNames.add(className);
+	}
+
+	/**
+	 * Merges the list of a previous compilation and writes the result. Nothing
+	 * is written if the list is empty and there was no previous one.
+	 */
+	public void write() {
+		if (!mergeExistingList() && classNames.isEmpty()) {
+			return;
+		}
+		try {
+			FileObject file = processingEnv.getFiler().createResource(
+					StandardLocation.CLASS_OUTPUT, "", location);
+			Writer writer = file.openWriter();
+			try {
+				if (header != null) {
+					writer.write("# " + header + "\n");
+				}
+				for (String className : classNames) {
+					writer.write(className);
+					writer.write("\n");
+				}
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					"Cannot write " + location + ": " + e.getMessage());
+		}
+	}
+
+	/*
+	 * Reads the list written by a previous compilation into the same output
+	 * directory (if any) and keeps all entries whose class was not compiled
+	 * this time but still exists. Returns false if there was no list.
+	 */
+	private boolean mergeExistingList() {
+		try {
+			FileObject file = processingEnv.getFiler().getResource(
+					StandardLocation.CLASS_OUTPUT, "", location);
+			BufferedReader reader = new BufferedReader(file.openReader(true));
+			try {
+				String line = reader.readLine();
+				while (line != null) {
+					line = line.trim();
+					if (line.length() > 0 && !line.startsWith("#")) {
+						int suffix = line.indexOf("$$");
+						String owner = suffix > 0 ? line.substring(0, suffix)
+								: line;
+						if (!compiled.contains(owner) && exists(owner)) {
+							classNames.add(line);
+						}
+					}
+					line = reader.readLine();
+				}
+			} finally {
+				reader.close();
+			}
+			return true;
+		} catch (IOException e) {
+			return false;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private boolean exists(String binaryName) {
+		return processingEnv.getElementUtils().getTypeElement(
+				binaryName.replace('$', '.')) != null;
+	}
+
+}
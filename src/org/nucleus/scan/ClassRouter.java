@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.scan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Distributes classes to the actions interested in them. The interests of all
+ * actions are compiled once into an index (by annotation, super type and
+ * package), so that routing a class costs a few lookups per annotation, super
+ * type and package segment of the class - independent of the number of
+ * actions.
+ */
+public class ClassRouter {
+
+	private final ClassHierarchy hierarchy;
+	private final int size;
+	private final List<Integer> everything = new ArrayList<Integer>();
+	private final Map<String, List<Integer>> byAnnotation = new HashMap<String, List<Integer>>();
+	private final Map<String, List<Integer>> bySupertype = new HashMap<String, List<Integer>>();
+	private final Map<String, List<Integer>> byPackage = new HashMap<String, List<Integer>>();
+
+	/**
+	 * Creates a router for the given interests. An interest of <tt>null</tt>
+	 * matches all classes.
+	 */
+	public ClassRouter(List<ClassInterest> interests, ClassHierarchy hierarchy) {
+		this.hierarchy = hierarchy;
+		this.size = interests.size();
+		for (int i = 0; i < interests.size(); i++) {
+			ClassInterest interest = interests.get(i);
+			if (interest == null) {
+				everything.add(i);
+			} else {
+				index(byAnnotation, interest.getAnnotations(), i);
+				index(bySupertype, interest.getSupertypes(), i);
+				index(byPackage, interest.getPackages(), i);
+			}
+		}
+	}
+
+	private static void index(Map<String, List<Integer>> index,
+			Iterable<String> keys, int target) {
+		for (String key : keys) {
+			List<Integer> targets = index.get(key);
+			if (targets == null) {
+				targets = new ArrayList<Integer>();
+				index.put(key, targets);
+			}
+			targets.add(target);
+		}
+	}
+
+	/**
+	 * Determines if any interest matches the given class.
+	 */
+	public boolean isRelevant(ClassInfo info) {
+		return !everything.isEmpty() || match(info, new boolean[size]);
+	}
+
+	/**
+	 * Returns for each interest (in the order given to the constructor) the
+	 * list of matching classes. The classes keep the order in which they are
+	 * given.
+	 */
+	public List<List<ClassInfo>> route(List<ClassInfo> infos) {
+		List<List<ClassInfo>> result = new ArrayList<List<ClassInfo>>(size);
+		for (int i = 0; i < size; i++) {
+			result.add(new ArrayList<ClassInfo>());
+		}
+		boolean[] matches = new boolean[size];
+		for (ClassInfo info : infos) {
+			match(info, matches);
+			for (int i = 0; i < size; i++) {
+				if (matches[i]) {
+					result.get(i).add(info);
+					matches[i] = false;
+				}
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Marks all matching interests and returns true if at least one matched.
+	 */
+	private boolean match(ClassInfo info, boolean[] matches) {
+		boolean result = mark(everything, matches);
+		for (String annotation : info.getAnnotations()) {
+			result |= mark(byAnnotation.get(annotation), matches);
+		}
+		if (!byPackage.isEmpty()) {
+			String name = info.getName();
+			int dot = name.indexOf('.');
+			while (dot >= 0) {
+				result |= mark(byPackage.get(name.substring(0, dot)), matches);
+				dot = name.indexOf('.', dot + 1);
+			}
+		}
+		if (!bySupertype.isEmpty()) {
+			for (String type : hierarchy.getSupertypes(info)) {
+				result |= mark(bySupertype.get(type), matches);
+			}
+		}
+		return result;
+	}
+
+	private static boolean mark(List<Integer> targets, boolean[] matches) {
+		if (targets == null) {
+			return false;
+		}
+		for (Integer target : targets) {
+			matches[target] = true;
+		}
+		return !targets.isEmpty();
+	}
+}
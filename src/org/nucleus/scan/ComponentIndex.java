@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.scan;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nucleus.Nucleus;
+
+/**
+ * Provides access to the index which is generated at compile time by the
+ * {@link ComponentIndexProcessor}. The index lists all classes of a component
+ * which are relevant to the kernel (classes wearing
+ * {@link org.nucleus.core.Register} and implementations of
+ * {@link Nucleus.ClassLoadAction}), so that the classpath scan can be skipped.
+ * <p>
+ * As the index does not list any other classes, it is only used if all
+ * actions are selective and only interested in classes it covers (see
+ * {@link #covers(ClassInterest)}). Otherwise all components are scanned
+ * completely.
+ */
+public class ComponentIndex {
+
+	/**
+	 * Location of the index file, relative to the root of the component.
+	 */
+	public static final String LOCATION = "META-INF/nucleus/index";
+
+	private static final String REGISTER = "org.nucleus.core.Register";
+
+	/**
+	 * Determines if the index lists all classes matching the given interest,
+	 * which is the case if the interest only asks for classes wearing
+	 * {@link org.nucleus.core.Register}.
+	 */
+	public static boolean covers(ClassInterest interest) {
+		if (interest == null || !interest.getSupertypes().isEmpty()
+				|| !interest.getPackages().isEmpty()) {
+			return false;
+		}
+		for (String annotation : interest.getAnnotations()) {
+			if (!REGISTER.equals(annotation)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the index of the component described by the given
+	 * component.properties URL. Returns <tt>null</tt> if the component does
+	 * not provide an index.
+	 */
+	public static List<String> read(URL componentUrl) {
+		try {
+			URL indexUrl = new URL(componentUrl, LOCATION);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					indexUrl.openStream(), "UTF-8"));
+			try {
+				List<String> result = new ArrayList<String>();
+				String line = reader.readLine();
+				while (line != null) {
+					line = line.trim();
+					if (line.length() > 0 && !line.startsWith("#")) {
+						result.add(line);
+					}
+					line = reader.readLine();
+				}
+				return result;
+			} finally {
+				reader.close();
+			}
+		} catch (FileNotFoundException e) {
+			return null;
+		} catch (IOException e) {
+			Nucleus.LOG.warning("Failed to read component index of: "
+					+ componentUrl + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.scan;
+
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+
+/**
+ * Annotation processor which writes the {@link ComponentIndex} of a
+ * component. All classes wearing {@link org.nucleus.core.Register} as well as
+ * all implementations of {@link org.nucleus.Nucleus.ClassLoadAction} are
+ * listed in <tt>META-INF/nucleus/index</tt>.
+ * <p>
+ * The processor is picked up automatically by javac, as long as the nucleus
+ * jar is on the compile classpath. It only claims interest in
+ * {@link org.nucleus.core.Register}: javac therefore runs it for compilations
+ * containing at least one registered class, in which case all compiled
+ * classes (including class load actions) are inspected. A compilation without
+ * any registered class leaves an existing index untouched. If only a part of
+ * the sources is compiled, the existing index is merged (see
+ * {@link ClassNameList}).
+ */
+@SupportedAnnotationTypes("org.nucleus.core.Register")
+public class ComponentIndexProcessor extends AbstractProcessor {
+
+	private static final String REGISTER = "org.nucleus.core.Register";
+	private static final String CLASS_LOAD_ACTION = "org.nucleus.Nucleus.ClassLoadAction";
+
+	private ClassNameList index;
+
+	@Override
+	public synchronized void init(ProcessingEnvironment processingEnv) {
+		super.init(processingEnv);
+		index = new ClassNameList(processingEnv, ComponentIndex.LOCATION,
+				"Generated by the Nucleus ComponentIndexProcessor");
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+			RoundEnvironment roundEnv) {
+		if (roundEnv.processingOver()) {
+			index.write();
+			return false;
+		}
+		TypeElement actionType = processingEnv.getElementUtils()
+				.getTypeElement(CLASS_LOAD_ACTION);
+		TypeMirror action = actionType == null ? null : processingEnv
+				.getTypeUtils().erasure(actionType.asType());
+		for (Element element : roundEnv.getRootElements()) {
+			collect(element, action);
+		}
+		return false;
+	}
+
+	private void collect(Element element, TypeMirror action) {
+		if (!element.getKind().isClass() && !element.getKind().isInterface()) {
+			return;
+		}
+		TypeElement type = (TypeElement) element;
+		String name = index.addCompiled(type);
+		if (isRelevant(type, action)) {
+			index.add(name);
+		}
+		for (Element child : type.getEnclosedElements()) {
+			collect(child, action);
+		}
+	}
+
+	private boolean isRelevant(TypeElement type, TypeMirror action) {
+		for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
+			if (REGISTER.equals(((TypeElement) annotation.getAnnotationType()
+					.asElement()).getQualifiedName().toString())) {
+				return true;
+			}
+		}
+		return action != null
+				&& type.getKind() == ElementKind.CLASS
+				&& !type.getModifiers().contains(Modifier.ABSTRACT)
+				&& processingEnv.getTypeUtils().isAssignable(
+						processingEnv.getTypeUtils().erasure(type.asType()),
+						action);
+	}
+
+}
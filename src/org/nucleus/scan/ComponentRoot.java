@@ -0,0 +1,278 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.scan;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Provides access to the files of a component, which is either a directory or
+ * a JAR file containing a component.properties in its root.
+ * <p>
+ * Local directories are accessed via NIO. Local JAR files are opened once as
+ * {@link JarFile}, which is shared by all reads until the root is closed (a
+ * zip file system takes several times as long to list and read all classes).
+ * Components which are not available locally, like JARs nested in another
+ * JAR, are accessed via their URLs.
+ */
+public class ComponentRoot implements Closeable {
+
+	private final URL url;
+	private final File file;
+	private final Path root;
+	private final JarFile jar;
+
+	private ComponentRoot(URL url, File file, Path root, JarFile jar) {
+		this.url = url;
+		this.file = file;
+		this.root = root;
+		this.jar = jar;
+	}
+
+	/**
+	 * Opens the component described by the given component.properties URL.
+	 */
+	public static ComponentRoot open(URL url) throws IOException {
+		File file = getFile(url);
+		if (file == null || !file.exists()) {
+			return new ComponentRoot(url, null, null, null);
+		}
+		if (file.isDirectory()) {
+			return new ComponentRoot(url, file, file.toPath(), null);
+		}
+		return new ComponentRoot(url, file, null, new JarFile(file));
+	}
+
+	/*
+	 * Returns the local directory or JAR file of the given component. A JAR
+	 * nested in another JAR (whose URL contains several separators, as used by
+	 * executable "fat" JARs) is not a local file.
+	 */
+	private static File getFile(URL url) {
+		try {
+			if ("file".equals(url.getProtocol())) {
+				File file = Paths.get(url.toURI()).toFile();
+				return file.isDirectory() ? file : file.getParentFile();
+			}
+			if ("jar".equals(url.getProtocol())) {
+				String path = url.getPath();
+				int separator = path.indexOf("!/");
+				if (separator >= 0 && path.indexOf("!/", separator + 2) >= 0) {
+					return null;
+				}
+				URL jar = new URL(separator < 0 ? path : path.substring(0,
+						separator));
+				if ("file".equals(jar.getProtocol())) {
+					return Paths.get(jar.toURI()).toFile();
+				}
+			}
+		} catch (IOException e) {
+			return null;
+		} catch (URISyntaxException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the local directory or JAR file of this component or
+	 * <tt>null</tt> if the component is not available locally.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Lists the paths (relative to the root and separated by /) of all files
+	 * of this component. The directories of a JAR file are listed as well
+	 * (ending with /), like the entries of the JAR. If <tt>classesOnly</tt>
+	 * is set, only class files are listed and directories whose names are no
+	 * valid package names (like META-INF) are skipped.
+	 */
+	public List<String> list(boolean classesOnly) throws IOException {
+		List<String> result = new ArrayList<String>();
+		if (root != null) {
+			Files.walkFileTree(root, new Lister(result, classesOnly));
+		} else if (jar != null || "jar".equals(url.getProtocol())) {
+			JarFile jar = this.jar != null ? this.jar
+					: ((JarURLConnection) url.openConnection()).getJarFile();
+			Enumeration<JarEntry> e = jar.entries();
+			while (e.hasMoreElements()) {
+				JarEntry entry = e.nextElement();
+				if (!classesOnly || !entry.isDirectory()
+						&& isClassFile(entry.getName())) {
+					result.add(entry.getName());
+				}
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Collects all files while building their relative paths incrementally:
+	 * the path of the current directory is kept in a buffer which is extended
+	 * and truncated as the walk enters and leaves directories.
+	 */
+	private class Lister extends SimpleFileVisitor<Path> {
+
+		private final List<String> result;
+		private final boolean classesOnly;
+		private final StringBuilder path = new StringBuilder();
+
+		Lister(List<String> result, boolean classesOnly) {
+			this.result = result;
+			this.classesOnly = classesOnly;
+		}
+
+		@Override
+		public FileVisitResult preVisitDirectory(Path dir,
+				BasicFileAttributes attrs) {
+			if (dir.equals(root)) {
+				return FileVisitResult.CONTINUE;
+			}
+			String name = dir.getFileName().toString();
+			if (classesOnly && !isIdentifier(name)) {
+				return FileVisitResult.SKIP_SUBTREE;
+			}
+			path.append(name).append('/');
+			return FileVisitResult.CONTINUE;
+		}
+
+		@Override
+		public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+			if (!dir.equals(root)) {
+				path.setLength(path.length()
+						- dir.getFileName().toString().length() - 1);
+			}
+			return FileVisitResult.CONTINUE;
+		}
+
+		@Override
+		public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+			String name = file.getFileName().toString();
+			if (!classesOnly || isClassFile(name)) {
+				int length = path.length();
+				result.add(path.append(name).toString());
+				path.setLength(length);
+			}
+			return FileVisitResult.CONTINUE;
+		}
+	}
+
+	/*
+	 * Class files of package-info, module-info and of multi release JARs are
+	 * skipped, as these cannot be loaded as classes by their path.
+	 */
+	private static boolean isClassFile(String path) {
+		if (!path.endsWith(".class")) {
+			return false;
+		}
+		for (String name : path.substring(0, path.length() - 6).split("/")) {
+			if (!isIdentifier(name)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Determines if the given name can be part of a class name.
+	 */
+	private static boolean isIdentifier(String name) {
+		if (name.isEmpty() || !Character.isJavaIdentifierStart(name.charAt(0))) {
+			return false;
+		}
+		for (int i = 1; i < name.length(); i++) {
+			if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Opens the file with the given relative path.
+	 */
+	public InputStream openStream(String relativePath) throws IOException {
+		if (root != null) {
+			return Files.newInputStream(root.resolve(relativePath));
+		}
+		if (jar != null) {
+			JarEntry entry = jar.getJarEntry(relativePath);
+			if (entry == null) {
+				throw new FileNotFoundException(relativePath + " in " + file);
+			}
+			return jar.getInputStream(entry);
+		}
+		return new URL(url, relativePath).openStream();
+	}
+
+	/**
+	 * Reads the file with the given relative path completely. Local files are
+	 * read at once, without copying them through a stream.
+	 */
+	public byte[] read(String relativePath) throws IOException {
+		if (root != null) {
+			return Files.readAllBytes(root.resolve(relativePath));
+		}
+		InputStream in = openStream(relativePath);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+			byte[] buffer = new byte[4096];
+			int read = in.read(buffer);
+			while (read >= 0) {
+				out.write(buffer, 0, read);
+				read = in.read(buffer);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (jar != null) {
+			jar.close();
+		}
+	}
+}
@@ -0,0 +1,367 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.scan;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+
+import org.nucleus.Nucleus;
+import org.nucleus.StartupReport;
+
+/**
+ * Discovers and loads the classes of all components (JAR files or directories
+ * which have a component.properties in their root).
+ * <p>
+ * Discovering a component only reads the headers of its class files (see
+ * {@link ClassInfo}). Classes are loaded by {@link #load(List)} once the
+ * kernel has decided which of them are of any interest.
+ * <p>
+ * The scanner either runs on the calling thread or uses a
+ * {@link ForkJoinPool} to process several components - and large components
+ * in chunks - at the same time. In both modes the resulting lists are in the
+ * same order: components in the order of their URLs, classes in the order in
+ * which they are listed by the component.
+ * <p>
+ * Components which provide a {@link ComponentIndex} only contribute the
+ * indexed classes to {@link #scan(List)}. If this turns out to be insufficient
+ * (see {@link ComponentIndex#covers(ClassInterest)}), {@link #rescanIndexed()}
+ * scans these components completely.
+ */
+public class ComponentScanner {
+
+	/*
+	 * Number of classes a single task processes before a list is split into
+	 * chunks.
+	 */
+	private static final int CHUNK_SIZE = 256;
+
+	private final ForkJoinPool pool;
+	private final ClassLoader loader;
+	private ScanCache cache;
+	private StartupReport report;
+	private List<ComponentTask> tasks = new ArrayList<ComponentTask>();
+
+	/**
+	 * Creates a new scanner which uses the given pool. If <tt>null</tt> is
+	 * given, all components are processed on the calling thread. Classes are
+	 * loaded using the given class loader, which should be the one that
+	 * provided the components.
+	 */
+	public ComponentScanner(ForkJoinPool pool, ClassLoader loader) {
+		this.pool = pool;
+		this.loader = loader;
+	}
+
+	/**
+	 * Makes the scanner reuse the results stored in the given cache for
+	 * unchanged components. The cache is updated after each scan.
+	 */
+	public void useCache(ScanCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Makes the scanner record the time spent per component in the given
+	 * report.
+	 */
+	public void useReport(StartupReport report) {
+		this.report = report;
+	}
+
+	/**
+	 * Reads the class headers of all classes of the given components.
+	 */
+	public List<ClassInfo> scan(List<URL> components) {
+		tasks = new ArrayList<ComponentTask>();
+		for (URL url : components) {
+			tasks.add(new ComponentTask(url, cache, report, true));
+		}
+		return run(tasks);
+	}
+
+	/**
+	 * Determines if at least one component of the last scan was read from its
+	 * index.
+	 */
+	public boolean hasIndexedComponents() {
+		for (ComponentTask task : tasks) {
+			if (task.indexed) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Scans all components, which were read from their index during the last
+	 * {@link #scan(List)}, completely. Returns the class headers of all
+	 * components as if no index had been present.
+	 */
+	public List<ClassInfo> rescanIndexed() {
+		List<ComponentTask> rescan = new ArrayList<ComponentTask>();
+		for (ComponentTask task : tasks) {
+			rescan.add(task.indexed ? new ComponentTask(task.url, cache,
+					report, false) : task);
+		}
+		tasks = rescan;
+		return run(rescan);
+	}
+
+	private List<ClassInfo> run(List<ComponentTask> tasks) {
+		if (pool != null) {
+			for (ComponentTask task : tasks) {
+				if (!task.isDone()) {
+					pool.execute(task);
+				}
+			}
+		}
+		List<ClassInfo> result = new ArrayList<ClassInfo>();
+		for (ComponentTask task : tasks) {
+			result.addAll(pool != null || task.isDone() ? task.join() : task
+					.invoke());
+		}
+		if (cache != null) {
+			cache.save();
+		}
+		return result;
+	}
+
+	/**
+	 * Loads the given classes. The classes are not initialized, so that
+	 * static initializers only run once a class is actually used.
+	 */
+	public List<Class<?>> load(List<ClassInfo> classes) {
+		LoadTask task = new LoadTask(classes, loader);
+		if (pool != null) {
+			return pool.invoke(task);
+		}
+		return task.invoke();
+	}
+
+	/*
+	 * Maps a list of items to a list of results, splitting it in halves until
+	 * the chunks are small enough. Items mapped to null are skipped.
+	 */
+	private abstract static class ChunkTask<I, O> extends
+			RecursiveTask<List<O>> {
+
+		private static final long serialVersionUID = -3520412717541926410L;
+
+		protected final List<I> items;
+
+		ChunkTask(List<I> items) {
+			this.items = items;
+		}
+
+		protected abstract O process(I item);
+
+		protected abstract ChunkTask<I, O> split(List<I> items);
+
+		@Override
+		protected List<O> compute() {
+			if (items.size() <= CHUNK_SIZE || !inForkJoinPool()) {
+				List<O> result = new ArrayList<O>(items.size());
+				for (I item : items) {
+					O output = process(item);
+					if (output != null) {
+						result.add(output);
+					}
+				}
+				return result;
+			}
+			int middle = items.size() / 2;
+			ChunkTask<I, O> head = split(items.subList(0, middle));
+			ChunkTask<I, O> tail = split(items.subList(middle, items.size()));
+			ForkJoinTask.invokeAll(head, tail);
+			List<O> result = new ArrayList<O>(head.join());
+			result.addAll(tail.join());
+			return result;
+		}
+	}
+
+	/*
+	 * Lists the classes of a single component and reads their headers.
+	 */
+	private static class ComponentTask extends RecursiveTask<List<ClassInfo>> {
+
+		private static final long serialVersionUID = 6329519733425296432L;
+
+		private final URL url;
+		private final ScanCache cache;
+		private final StartupReport report;
+		private final boolean useIndex;
+		private boolean indexed;
+
+		ComponentTask(URL url, ScanCache cache, StartupReport report,
+				boolean useIndex) {
+			this.url = url;
+			this.cache = cache;
+			this.report = report;
+			this.useIndex = useIndex;
+		}
+
+		@Override
+		protected List<ClassInfo> compute() {
+			Nucleus.LOG.info("Loading component: " + getName(url) + " form "
+					+ url.toString());
+			StartupReport.Stopwatch watch = new StartupReport.Stopwatch();
+			try {
+				ComponentRoot root = ComponentRoot.open(url);
+				try {
+					return scan(root);
+				} finally {
+					root.close();
+					if (report != null) {
+						report.recordComponent(url.toString(),
+								watch.wallNanos(), watch.cpuNanos());
+					}
+				}
+			} catch (IOException e) {
+				Nucleus.LOG.warning("Failed to scan component: " + url + ": "
+						+ e.getMessage());
+				return new ArrayList<ClassInfo>();
+			}
+		}
+
+		private List<ClassInfo> scan(ComponentRoot root) throws IOException {
+			long fingerprint = 0;
+			if (cache != null) {
+				fingerprint = ScanCache.fingerprint(root);
+				List<ClassInfo> result = cache.get(url, fingerprint);
+				if (result != null) {
+					Nucleus.LOG.fine("Using cached scan of: " + url);
+					return result;
+				}
+			}
+			List<String> paths = new ArrayList<String>();
+			List<String> classNames = useIndex ? ComponentIndex.read(url)
+					: null;
+			if (classNames != null) {
+				Nucleus.LOG.fine("Using component index of: " + url);
+				indexed = true;
+				for (String className : classNames) {
+					paths.add(className.replace('.', '/') + ".class");
+				}
+			} else {
+				paths = root.list(true);
+			}
+			List<ClassInfo> result = new ReadTask(root, paths).compute();
+			// Only complete scans are cached, as they serve any action
+			if (cache != null && !indexed) {
+				cache.put(url, fingerprint, result);
+			}
+			return result;
+		}
+	}
+
+	/*
+	 * Reads the class headers of a component.
+	 */
+	private static class ReadTask extends ChunkTask<String, ClassInfo> {
+
+		private static final long serialVersionUID = 4137036367208337744L;
+
+		private final ComponentRoot root;
+
+		ReadTask(ComponentRoot root, List<String> paths) {
+			super(paths);
+			this.root = root;
+		}
+
+		@Override
+		protected ClassInfo process(String path) {
+			try {
+				return ClassInfo.read(root.read(path));
+			} catch (IOException e) {
+				Nucleus.LOG.warning("Failed to read class: " + path + ": "
+						+ e.getMessage());
+				return null;
+			}
+		}
+
+		@Override
+		protected ChunkTask<String, ClassInfo> split(List<String> items) {
+			return new ReadTask(root, items);
+		}
+	}
+
+	/*
+	 * Loads classes.
+	 */
+	private static class LoadTask extends ChunkTask<ClassInfo, Class<?>> {
+
+		private static final long serialVersionUID = -3186372946460718421L;
+
+		private final ClassLoader loader;
+
+		LoadTask(List<ClassInfo> classes, ClassLoader loader) {
+			super(classes);
+			this.loader = loader;
+		}
+
+		@Override
+		protected Class<?> process(ClassInfo info) {
+			String className = info.getName();
+			try {
+				if (Nucleus.LOG.isLoggable(Level.FINE)) {
+					Nucleus.LOG.fine("Found class: " + className);
+				}
+				return Class.forName(className, false, loader);
+			} catch (ClassNotFoundException e) {
+				Nucleus.LOG.warning("Failed to load class: " + className
+						+ ": " + e.getMessage());
+			} catch (NoClassDefFoundError e) {
+				Nucleus.LOG.warning("Failed to load dependend class: "
+						+ className + ": " + e.getMessage());
+			}
+			return null;
+		}
+
+		@Override
+		protected ChunkTask<ClassInfo, Class<?>> split(List<ClassInfo> items) {
+			return new LoadTask(items, loader);
+		}
+	}
+
+	private static String getName(URL url) {
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					url.openStream()));
+			try {
+				return reader.readLine();
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			return "unknown";
+		}
+	}
+
+}
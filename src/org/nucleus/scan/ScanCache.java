@@ -0,0 +1,310 @@
+/**
+ * Copyright (c) 2012 scireum GmbH - Andreas Haufler - aha@scireum.de
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a 
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included
+ * in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS
+ * OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ */
+package org.nucleus.scan;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.nucleus.Nucleus;
+
+/**
+ * Persists the results of a component scan, so that subsequent starts only
+ * have to rescan components which changed.
+ * <p>
+ * Each component is stored with a fingerprint: the size and modification
+ * time of its JAR file or a hash over the names, sizes and modification times
+ * of all files below its directory. The cache file is read through a memory
+ * mapped buffer.
+ */
+public class ScanCache {
+
+	/*
+	 * "NUC" followed by the version of the file format.
+	 */
+	private static final int MAGIC = 0x4E554301;
+
+	/*
+	 * Returned by fingerprint for components which cannot be cached.
+	 */
+	private static final long UNKNOWN = -1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final Map<String, Entry> previous;
+	private final Map<String, Entry> current = new ConcurrentHashMap<String, Entry>();
+
+	private static class Entry {
+		final long fingerprint;
+		final List<ClassInfo> classes;
+
+		Entry(long fingerprint, List<ClassInfo> classes) {
+			this.fingerprint = fingerprint;
+			this.classes = classes;
+		}
+	}
+
+	private ScanCache(File file, Map<String, Entry> previous) {
+		this.file = file;
+		this.previous = previous;
+	}
+
+	/**
+	 * Opens the given cache file. If the file does not exist or cannot be
+	 * read, an empty cache is returned.
+	 */
+	public static ScanCache open(File file) {
+		Map<String, Entry> entries = new HashMap<String, Entry>();
+		if (file.exists()) {
+			try {
+				entries = read(file);
+			} catch (Exception e) {
+				Nucleus.LOG.warning("Ignoring unreadable scan cache: " + file
+						+ ": " + e.getMessage());
+			}
+		}
+		return new ScanCache(file, entries);
+	}
+
+	/**
+	 * Returns the cached classes of the given component or <tt>null</tt> if
+	 * the component is unknown or was modified. The fingerprint has to be
+	 * computed using {@link #fingerprint(ComponentRoot)}.
+	 */
+	public List<ClassInfo> get(URL component, long fingerprint) {
+		if (fingerprint == UNKNOWN) {
+			return null;
+		}
+		Entry entry = previous.get(component.toString());
+		if (entry == null || entry.fingerprint != fingerprint) {
+			return null;
+		}
+		current.put(component.toString(), entry);
+		return entry.classes;
+	}
+
+	/**
+	 * Stores the classes of the given component.
+	 */
+	public void put(URL component, long fingerprint, List<ClassInfo> classes) {
+		if (fingerprint != UNKNOWN) {
+			current.put(component.toString(), new Entry(fingerprint, classes));
+		}
+	}
+
+	/**
+	 * Writes all components which were accessed since the cache was opened.
+	 * The file is only written if its contents changed.
+	 */
+	public void save() {
+		if (previous.keySet().equals(current.keySet())) {
+			boolean modified = false;
+			for (Map.Entry<String, Entry> e : current.entrySet()) {
+				if (previous.get(e.getKey()) != e.getValue()) {
+					modified = true;
+				}
+			}
+			if (!modified) {
+				return;
+			}
+		}
+		try {
+			File tmp = new File(file.getPath() + ".tmp");
+			write(tmp);
+			Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Nucleus.LOG.warning("Failed to write scan cache: " + file + ": "
+					+ e.getMessage());
+		}
+	}
+
+	/*
+	 * The file starts with a table of all strings, followed by the entries
+	 * which refer to these strings by their index.
+	 */
+	private void write(File target) throws IOException {
+		Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		for (Map.Entry<String, Entry> e : current.entrySet()) {
+			intern(strings, e.getKey());
+			for (ClassInfo info : e.getValue().classes) {
+				intern(strings, info.getName());
+				intern(strings, info.getSuperName());
+				for (String iface : info.getInterfaces()) {
+					intern(strings, iface);
+				}
+				for (String annotation : info.getAnnotations()) {
+					intern(strings, annotation);
+				}
+			}
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(target)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(strings.size());
+			for (String string : strings.keySet()) {
+				byte[] bytes = string.getBytes(UTF8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			out.writeInt(current.size());
+			for (Map.Entry<String, Entry> e : current.entrySet()) {
+				out.writeInt(strings.get(e.getKey()));
+				out.writeLong(e.getValue().fingerprint);
+				out.writeInt(e.getValue().classes.size());
+				for (ClassInfo info : e.getValue().classes) {
+					out.writeInt(strings.get(info.getName()));
+					out.writeInt(info.getSuperName() == null ? -1 : strings
+							.get(info.getSuperName()));
+					out.writeInt(info.getAccess());
+					writeNames(out, strings, info.getInterfaces());
+					writeNames(out, strings, info.getAnnotations());
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void intern(Map<String, Integer> strings, String string) {
+		if (string != null && !strings.containsKey(string)) {
+			strings.put(string, strings.size());
+		}
+	}
+
+	private static void writeNames(DataOutputStream out,
+			Map<String, Integer> strings, String[] names) throws IOException {
+		out.writeShort(names.length);
+		for (String name : names) {
+			out.writeInt(strings.get(name));
+		}
+	}
+
+	private static Map<String, Entry> read(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		try {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Unknown file format");
+			}
+			String[] strings = new String[buffer.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				byte[] bytes = new byte[buffer.getInt()];
+				buffer.get(bytes);
+				strings[i] = new String(bytes, UTF8);
+			}
+			int count = buffer.getInt();
+			Map<String, Entry> result = new HashMap<String, Entry>(count * 2);
+			for (int i = 0; i < count; i++) {
+				String url = strings[buffer.getInt()];
+				long fingerprint = buffer.getLong();
+				int numClasses = buffer.getInt();
+				List<ClassInfo> classes = new ArrayList<ClassInfo>(numClasses);
+				for (int c = 0; c < numClasses; c++) {
+					String name = strings[buffer.getInt()];
+					int superName = buffer.getInt();
+					int access = buffer.getInt();
+					classes.add(new ClassInfo(name, superName < 0 ? null
+							: strings[superName], readNames(buffer, strings),
+							readNames(buffer, strings), access));
+				}
+				result.put(url, new Entry(fingerprint, classes));
+			}
+			return result;
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static String[] readNames(ByteBuffer buffer, String[] strings) {
+		String[] result = new String[buffer.getShort() & 0xFFFF];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = strings[buffer.getInt()];
+		}
+		return result;
+	}
+
+	/**
+	 * Computes the fingerprint of the given component. Returns -1 if the
+	 * component is neither a local directory nor a local JAR file.
+	 */
+	public static long fingerprint(ComponentRoot component) {
+		File root = component.getFile();
+		if (root == null || !root.exists()) {
+			return UNKNOWN;
+		}
+		if (root.isFile()) {
+			return mix(root.length() * 31 + root.lastModified());
+		}
+		final long[] hash = new long[1];
+		final Path base = root.toPath();
+		try {
+			Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file,
+						BasicFileAttributes attrs) throws IOException {
+					// Summing up is independent of the visiting order
+					hash[0] += mix(base.relativize(file).toString().hashCode()
+							* 31L * 31L + attrs.size() * 31L
+							+ attrs.lastModifiedTime().toMillis());
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			return UNKNOWN;
+		}
+		return hash[0] & Long.MAX_VALUE;
+	}
+
+	/*
+	 * Spreads the bits of the given value (finalizer of SplitMix64).
+	 */
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+		value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+		return (value ^ (value >>> 31)) & Long.MAX_VALUE;
+	}
+}